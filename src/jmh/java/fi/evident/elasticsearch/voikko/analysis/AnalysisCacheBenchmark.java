@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures cache lookups of Zipf-distributed words, storing a result on each miss like the filter does.
+ * The lookup keys are created up front, so that a hit doesn't allocate anything.
+ * <p>
+ * JMH can't take the thread count as a parameter, so the benchmark is run by a subclass for each
+ * thread count from 1 to 64 to show the effect of contention. Use e.g.
+ * {@code -Pjmh.include=AnalysisCacheBenchmark.Threads16} to run only one of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class AnalysisCacheBenchmark {
+
+    @Param({ "lru", "tinylfu" })
+    public String cacheType;
+
+    @Param({ "1024" })
+    public int cacheSize;
+
+    @Param({ "50000" })
+    public int vocabularySize;
+
+    private AnalysisCache cache;
+    private String[] words;
+    private char[][] keys;
+    private final StubMorphologicalAnalyzer analyzer = new StubMorphologicalAnalyzer(0);
+
+    @Setup
+    public void setup() {
+        cache = AnalysisCacheType.fromSetting(cacheType).create(cacheSize);
+        words = new ZipfWords(vocabularySize, 1.0, 42).next(1 << 16);
+        keys = new char[words.length][];
+        for (int i = 0; i < words.length; i++)
+            keys[i] = words[i].toCharArray();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final WordKey key = new WordKey();
+        int position = 0;
+    }
+
+    @Benchmark
+    public List<String> getOrPut(Cursor cursor) {
+        int position = cursor.position++ & (words.length - 1);
+        char[] chars = keys[position];
+        WordKey key = cursor.key.set(chars, 0, chars.length);
+
+        List<String> result = cache.get(key);
+        if (result == null) {
+            result = analyzer.baseForms(words[position]);
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    @Threads(1)
+    public static class Threads1 extends AnalysisCacheBenchmark {
+    }
+
+    @Threads(2)
+    public static class Threads2 extends AnalysisCacheBenchmark {
+    }
+
+    @Threads(4)
+    public static class Threads4 extends AnalysisCacheBenchmark {
+    }
+
+    @Threads(8)
+    public static class Threads8 extends AnalysisCacheBenchmark {
+    }
+
+    @Threads(16)
+    public static class Threads16 extends AnalysisCacheBenchmark {
+    }
+
+    @Threads(32)
+    public static class Threads32 extends AnalysisCacheBenchmark {
+    }
+
+    @Threads(64)
+    public static class Threads64 extends AnalysisCacheBenchmark {
+    }
+}
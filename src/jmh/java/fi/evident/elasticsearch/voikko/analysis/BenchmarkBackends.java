@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.puimula.libvoikko.Voikko;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+
+/**
+ * Creates the analyzers benchmarked: {@code stub} is always available, {@code native} (JNA binding)
+ * and {@code direct} (JNA direct mapping) require system property {@code voikko.path} (and optionally
+ * {@code voikko.dict.path}) to be defined.
+ */
+final class BenchmarkBackends {
+
+    /** Simulated work per analysis of the stub, see {@link org.openjdk.jmh.infra.Blackhole#consumeCPU(long)} */
+    private static final long STUB_COST = 2000;
+
+    private BenchmarkBackends() {
+    }
+
+    static Supplier<MorphologicalAnalyzer> factory(String backend) {
+        switch (backend) {
+            case "stub":
+                return () -> new StubMorphologicalAnalyzer(STUB_COST);
+            case "native":
+                return nativeFactory(AnalysisBackend.LIBVOIKKO);
+            case "direct":
+                return nativeFactory(AnalysisBackend.LIBVOIKKO_DIRECT);
+            default:
+                throw new IllegalArgumentException("unknown backend: " + backend);
+        }
+    }
+
+    private static Supplier<MorphologicalAnalyzer> nativeFactory(AnalysisBackend backend) {
+        String voikkoPath = System.getProperty("voikko.path");
+        if (voikkoPath == null)
+            throw new IllegalStateException("System property 'voikko.path' is not defined, add '-Dvoikko.path=/path/to/voikko'");
+
+        String dictPath = System.getProperty("voikko.dict.path");
+        Path dictDirectory = dictPath != null ? Paths.get(dictPath) : Paths.get(voikkoPath, "dicts");
+
+        Voikko.addLibraryPath(voikkoPath);
+        String dictionaryPath = dictDirectory.toAbsolutePath().toString();
+        return backend.factory("fi_FI", dictionaryPath, null);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Deterministic {@link MorphologicalAnalyzer} for benchmarks that don't need native libvoikko.
+ * Returns the word truncated to at most six characters, spending given amount of simulated
+ * work per call to roughly approximate the cost of real analysis.
+ */
+final class StubMorphologicalAnalyzer implements MorphologicalAnalyzer {
+
+    private final long tokensPerCall;
+
+    StubMorphologicalAnalyzer(long tokensPerCall) {
+        this.tokensPerCall = tokensPerCall;
+    }
+
+    @Override
+    public List<String> baseForms(String word) {
+        if (tokensPerCall > 0)
+            Blackhole.consumeCPU(tokensPerCall);
+
+        if (word.length() % 7 == 0) {
+            List<String> result = new ArrayList<>(2);
+            result.add(word.substring(0, word.length() / 2));
+            result.add(word);
+            return result;
+        }
+
+        return singletonList(word.length() > 6 ? word.substring(0, 6) : word);
+    }
+
+    @Override
+    public void terminate() {
+    }
+}
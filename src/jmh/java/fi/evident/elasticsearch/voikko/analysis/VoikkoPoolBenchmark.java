@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of borrowing an instance from the pool and returning it,
+ * with more threads than there are instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class VoikkoPoolBenchmark {
+
+    @Param({ "1", "4", "8" })
+    public int maxSize;
+
+    private VoikkoPool pool;
+
+    @Setup
+    public void setup() {
+        pool = new VoikkoPool(() -> new StubMorphologicalAnalyzer(0));
+        pool.setMaxSize(maxSize);
+        pool.setMinSize(maxSize);
+        pool.prewarm();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public MorphologicalAnalyzer takeAndRelease() throws InterruptedException {
+        MorphologicalAnalyzer voikko = pool.takeVoikko();
+        pool.release(voikko);
+        return voikko;
+    }
+}
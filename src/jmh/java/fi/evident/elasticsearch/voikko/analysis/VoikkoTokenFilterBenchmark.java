@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end analysis of Zipf-distributed text with {@link FinnishTokenizer} and
+ * {@link VoikkoTokenFilter}. The cache is cleared between iterations, so that each iteration
+ * includes warming it up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class VoikkoTokenFilterBenchmark {
+
+    @Param({ "stub" })
+    public String backend;
+
+    @Param({ "tinylfu" })
+    public String cacheType;
+
+    @Param({ "0", "32" })
+    public int lookahead;
+
+    @Param({ "1024" })
+    public int cacheSize;
+
+    @Param({ "0", "256" })
+    public int localCacheSize;
+
+    private VoikkoPool pool;
+    private AnalysisCache cache;
+    private LocalAnalysisCache localCache;
+    private ExecutorService executor;
+    private VoikkoTokenFilterConfiguration cfg;
+    private final VoikkoFilterStats stats = new VoikkoFilterStats();
+    private String[] documents;
+
+    @Setup
+    public void setup() {
+        pool = new VoikkoPool(BenchmarkBackends.factory(backend));
+        pool.setMaxSize(4);
+
+        cfg = new VoikkoTokenFilterConfiguration();
+        cfg.lookahead = lookahead;
+
+        executor = lookahead > 0 ? Executors.newFixedThreadPool(4) : null;
+
+        ZipfWords words = new ZipfWords(50000, 1.0, 42);
+        documents = new String[256];
+        for (int i = 0; i < documents.length; i++)
+            documents[i] = words.text(200);
+    }
+
+    @Setup(Level.Iteration)
+    public void createCache() {
+        cache = AnalysisCacheType.fromSetting(cacheType).create(cacheSize);
+        if (localCache != null)
+            localCache.close();
+        localCache = localCacheSize > 0 ? new LocalAnalysisCache(localCacheSize, cache) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.close();
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int position = 0;
+    }
+
+    @Benchmark
+    public void analyzeDocument(Cursor cursor, Blackhole blackhole) throws IOException {
+        String document = documents[cursor.position++ & (documents.length - 1)];
+
+        Tokenizer tokenizer = new FinnishTokenizer();
+        tokenizer.setReader(new StringReader(document));
+
+        try (TokenStream stream = new VoikkoTokenFilter(tokenizer, pool, cache, localCache, null, null, executor, stats, cfg)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken())
+                blackhole.consume(term.length());
+            stream.end();
+        }
+    }
+}
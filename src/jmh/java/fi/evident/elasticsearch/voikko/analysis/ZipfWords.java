@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Random;
+
+/**
+ * Generates words whose frequencies follow Zipf's law, like the words of natural language text.
+ */
+final class ZipfWords {
+
+    private final String[] vocabulary;
+    private final double[] cumulative;
+    private final Random random;
+
+    ZipfWords(int vocabularySize, double exponent, long seed) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        this.cumulative = new double[vocabularySize];
+
+        double sum = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            vocabulary[i] = word(i);
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+
+        for (int i = 0; i < vocabularySize; i++)
+            cumulative[i] /= sum;
+    }
+
+    String next() {
+        double p = random.nextDouble();
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < p)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return vocabulary[low];
+    }
+
+    String[] next(int count) {
+        String[] words = new String[count];
+        for (int i = 0; i < count; i++)
+            words[i] = next();
+        return words;
+    }
+
+    String text(int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0)
+                sb.append(i % 12 == 0 ? ". " : " ");
+            sb.append(next());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds a distinct pronounceable word for given index out of Finnish-looking syllables.
+     */
+    private static String word(int index) {
+        String[] syllables = { "ka", "ta", "lo", "mi", "su", "ke", "pä", "vi", "no", "rö", "hu", "ja" };
+        StringBuilder sb = new StringBuilder();
+        int n = index + syllables.length;
+        while (n > 0) {
+            sb.append(syllables[n % syllables.length]);
+            n /= syllables.length;
+        }
+        return sb.append("n").toString();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Available implementations of {@link MorphologicalAnalyzer}, selected with {@code backend}.
+ */
+enum AnalysisBackend {
+
+    /** Native libvoikko through its JNA binding. */
+    LIBVOIKKO {
+        @Override
+        Supplier<MorphologicalAnalyzer> factory(String language, String dictionaryPath, BaseformLexicon lexicon) {
+            return () -> LibvoikkoAnalyzer.create(language, dictionaryPath);
+        }
+    },
+
+    /** Native libvoikko through JNA direct mapping, or its JNA binding if direct mapping is not available. */
+    LIBVOIKKO_DIRECT {
+        @Override
+        Supplier<MorphologicalAnalyzer> factory(String language, String dictionaryPath, BaseformLexicon lexicon) {
+            return () -> DirectLibvoikkoAnalyzer.isAvailable()
+                ? DirectLibvoikkoAnalyzer.create(language, dictionaryPath)
+                : LibvoikkoAnalyzer.create(language, dictionaryPath);
+        }
+    },
+
+    /**
+     * Precompiled lexicon only: words missing from the lexicon are not analyzed. The filter looks words up
+     * from the lexicon itself and passes the missing ones through without using the pool or the cache.
+     */
+    LEXICON {
+        @Override
+        Supplier<MorphologicalAnalyzer> factory(String language, String dictionaryPath, BaseformLexicon lexicon) {
+            if (lexicon == null)
+                throw new IllegalArgumentException("backend 'lexicon' requires lexiconPath to be configured");
+
+            return () -> new LexiconAnalyzer(lexicon);
+        }
+    };
+
+    /**
+     * Returns a factory for the analyzers of this backend. The lexicon is {@code null} if
+     * none is configured.
+     */
+    abstract Supplier<MorphologicalAnalyzer> factory(String language, String dictionaryPath, BaseformLexicon lexicon);
+
+    /**
+     * Returns true if the analyzers of this backend call libvoikko, so that they
+     * give the same results for the same dictionary.
+     */
+    boolean usesLibvoikko() {
+        return this != LEXICON;
+    }
+
+    static AnalysisBackend fromSetting(String value) {
+        for (AnalysisBackend backend : values())
+            if (backend.name().equalsIgnoreCase(value))
+                return backend;
+
+        throw new IllegalArgumentException("unknown backend '" + value + "', expected 'libvoikko', 'libvoikko_direct' or 'lexicon'");
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
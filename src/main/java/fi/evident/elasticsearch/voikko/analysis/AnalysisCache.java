@@ -17,35 +17,77 @@
 package fi.evident.elasticsearch.voikko.analysis;
 
 import java.util.List;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
 
-final class AnalysisCache {
+/**
+ * Bounded cache of analysis results, shared by all threads using the same filter.
+ */
+interface AnalysisCache {
 
-    private final LRUCache<String, List<String>> cache;
-    private final ReentrantLock lock = new ReentrantLock(true);
+    /** Estimated bytes of an entry, not counting the characters of its word or its base forms */
+    int ENTRY_OVERHEAD_BYTES = 112;
 
-    AnalysisCache(int cacheSize) {
-        cache = new LRUCache<>(cacheSize);
-    }
+    /** Estimated bytes of a string, not counting its characters */
+    int STRING_OVERHEAD_BYTES = 40;
+
+    /**
+     * Returns the cached base forms of given word or {@code null} if the word is not cached.
+     * Must not allocate when the word is found.
+     */
+    List<String> get(WordKey word);
+
+    /**
+     * Stores the base forms of given word. The cache is free to reject the entry.
+     * Since the key may be a reused lookup key, implementations must store a copy of it.
+     * Results are deduplicated with {@link BaseformInterner}, so the stored list may be
+     * another instance with the same base forms.
+     */
+    void put(WordKey word, List<String> result);
+
+    /**
+     * Returns the number of cached entries.
+     */
+    int size();
+
+    /**
+     * Removes all entries.
+     */
+    void clear();
+
+    /**
+     * Returns a number that changes whenever the cache is cleared, so that copies of its entries,
+     * such as the tables of {@link LocalAnalysisCache}, know to drop them.
+     */
+    int getGeneration();
+
+    /**
+     * Returns at most given number of cached entries, the ones most worth keeping first.
+     */
+    Map<String, List<String>> hottest(int count);
+
+    /**
+     * Returns the estimated heap used by the cached entries, in bytes.
+     */
+    long getEstimatedBytes();
+
+    AnalysisCacheStats getStats();
 
-    List<String> get(String word) {
-        // Note that it seems that we could use a read/write -lock here and grab only the read-lock
-        // when retrieving stuff from cache, but this will not work because the cache uses access-order,
-        // meaning that every read will actually mutate the cache.
-        lock.lock();
-        try {
-            return cache.get(word);
-        } finally {
-            lock.unlock();
-        }
+    /**
+     * Estimates the bytes used by an entry. Base forms shared through given interner are counted
+     * by the interner, so only the references to them are counted here.
+     */
+    static long estimateBytes(CharSequence word, List<String> result, BaseformInterner interner) {
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * word.length() + 8L * result.size();
+        for (String baseForm : result)
+            if (!interner.isShared(baseForm))
+                bytes += estimateBytes(baseForm);
+        return bytes;
     }
 
-    void put(String word, List<String> result) {
-        lock.lock();
-        try {
-            cache.put(word, result);
-        } finally {
-            lock.unlock();
-        }
+    /**
+     * Estimates the bytes used by a string.
+     */
+    static long estimateBytes(String s) {
+        return STRING_OVERHEAD_BYTES + 2L * s.length();
     }
 }
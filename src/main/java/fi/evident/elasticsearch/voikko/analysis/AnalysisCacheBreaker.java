@@ -0,0 +1,72 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-level limit for the estimated memory of all analysis caches.
+ * <p>
+ * Every cache charges the estimated size of its entries here. When the total goes over the limit,
+ * the cache that is adding an entry sheds its own least valuable entries until the total is back
+ * under the limit, instead of letting the caches of many indices grow the heap without bounds.
+ */
+final class AnalysisCacheBreaker {
+
+    /** Breaker that never trips, for caches that are not accounted on node level */
+    static final AnalysisCacheBreaker UNLIMITED = new AnalysisCacheBreaker(Long.MAX_VALUE);
+
+    private volatile long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final LongAdder shedEntries = new LongAdder();
+
+    AnalysisCacheBreaker(long limit) {
+        this.limit = limit;
+    }
+
+    void addBytes(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    boolean isOverLimit() {
+        return used.get() > limit;
+    }
+
+    /**
+     * Records that an entry was evicted only because the breaker was over its limit.
+     */
+    void recordShed() {
+        shedEntries.increment();
+    }
+
+    void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+
+    long getUsed() {
+        return used.get();
+    }
+
+    long getShedEntries() {
+        return shedEntries.sum();
+    }
+}
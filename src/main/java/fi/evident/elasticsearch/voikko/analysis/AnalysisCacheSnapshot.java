@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.elasticsearch.common.SuppressForbidden;
+import org.elasticsearch.common.io.PathUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+
+/**
+ * Snapshot of the hottest entries of an {@link AnalysisCache}, persisted in the data path of the
+ * node so that the cache can be warmed after a restart without analyzing the words again.
+ * <p>
+ * The snapshot is written with a checksum and the version of the dictionary that produced the
+ * results. Snapshots whose checksum doesn't match or whose dictionary has changed since are ignored.
+ */
+final class AnalysisCacheSnapshot {
+
+    private static final String CODEC_NAME = "VoikkoCacheSnapshot";
+    private static final int VERSION = 0;
+
+    private final Path file;
+    private final String dictionaryVersion;
+    private final AnalysisCache cache;
+    private final int maxEntries;
+
+    AnalysisCacheSnapshot(Path file, String dictionaryVersion, AnalysisCache cache, int maxEntries) {
+        this.file = file.toAbsolutePath();
+        this.dictionaryVersion = dictionaryVersion;
+        this.cache = cache;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Writes the hottest entries of the cache, replacing the previous snapshot atomically.
+     */
+    synchronized void save() throws IOException {
+        Map<String, List<String>> entries = cache.hottest(maxEntries);
+        String fileName = file.getFileName().toString();
+        String tempName = fileName + ".tmp";
+
+        Files.createDirectories(file.getParent());
+        try (Directory directory = FSDirectory.open(file.getParent())) {
+            Files.deleteIfExists(file.resolveSibling(tempName));
+            try (IndexOutput output = directory.createOutput(tempName, IOContext.DEFAULT)) {
+                CodecUtil.writeHeader(output, CODEC_NAME, VERSION);
+                output.writeString(dictionaryVersion);
+                output.writeVInt(entries.size());
+                for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+                    output.writeString(entry.getKey());
+                    output.writeVInt(entry.getValue().size());
+                    for (String baseForm : entry.getValue())
+                        output.writeString(baseForm);
+                }
+                CodecUtil.writeFooter(output);
+            }
+            directory.sync(singleton(tempName));
+            directory.rename(tempName, fileName);
+            directory.syncMetaData();
+        }
+    }
+
+    /**
+     * Loads the snapshot into the cache, least hot entries first so that recency is preserved.
+     *
+     * @return number of entries loaded, or -1 if there was no usable snapshot
+     */
+    synchronized int load() throws IOException {
+        if (!Files.exists(file))
+            return -1;
+
+        List<String> words = new ArrayList<>();
+        List<List<String>> results = new ArrayList<>();
+        try (Directory directory = FSDirectory.open(file.getParent());
+             ChecksumIndexInput input = directory.openChecksumInput(file.getFileName().toString(), IOContext.READONCE)) {
+            CodecUtil.checkHeader(input, CODEC_NAME, VERSION, VERSION);
+            if (!dictionaryVersion.equals(input.readString()))
+                return -1;
+
+            int count = input.readVInt();
+            for (int i = 0; i < count; i++) {
+                words.add(input.readString());
+                int baseFormCount = input.readVInt();
+                List<String> baseForms = new ArrayList<>(baseFormCount);
+                for (int j = 0; j < baseFormCount; j++)
+                    baseForms.add(input.readString());
+                results.add(baseForms);
+            }
+            CodecUtil.checkFooter(input);
+        }
+
+        for (int i = words.size() - 1; i >= 0; i--)
+            cache.put(WordKey.of(words.get(i)), results.get(i));
+
+        return words.size();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * Returns a string that changes whenever the analysis results might change: when the backend,
+     * language or dictionary path is changed, or when any file in the dictionary directory is modified.
+     * Without a dictionary path, the directories where libvoikko looks for its dictionaries are used.
+     */
+    static String dictionaryVersion(AnalysisBackend backend, String language, String dictionaryPath) throws IOException {
+        return dictionaryVersion(backend, language, dictionaryPath, defaultDictionaryDirectories());
+    }
+
+    static String dictionaryVersion(AnalysisBackend backend, String language, String dictionaryPath, List<Path> defaultDirectories) throws IOException {
+        CRC32 crc = new CRC32();
+        if (dictionaryPath != null) {
+            update(crc, PathUtils.get(dictionaryPath));
+        } else {
+            for (Path directory : defaultDirectories) {
+                crc.update(directory.toString().getBytes(UTF_8));
+                update(crc, directory);
+            }
+        }
+        return backend + ":" + language + ":" + dictionaryPath + ":" + Long.toHexString(crc.getValue());
+    }
+
+    private static void update(CRC32 crc, Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.walk(directory)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (Path dictionaryFile : files) {
+            crc.update(directory.relativize(dictionaryFile).toString().getBytes(UTF_8));
+            crc.update(Long.toString(Files.size(dictionaryFile)).getBytes(UTF_8));
+            crc.update(Long.toString(Files.getLastModifiedTime(dictionaryFile).toMillis()).getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Returns the directories libvoikko searches for dictionaries when it isn't given a path, in the
+     * order it searches them. The directories built into libvoikko are not known, so the usual
+     * install locations are used instead.
+     */
+    @SuppressForbidden(reason = "libvoikko reads its dictionary path from the environment")
+    private static List<Path> defaultDictionaryDirectories() {
+        List<Path> directories = new ArrayList<>();
+        String environmentPath = System.getenv("VOIKKO_DICTIONARY_PATH");
+        if (environmentPath != null)
+            for (String directory : environmentPath.split(File.pathSeparator))
+                if (!directory.isEmpty())
+                    directories.add(PathUtils.get(directory));
+
+        String home = System.getProperty("user.home");
+        if (home != null)
+            directories.add(PathUtils.get(home, ".voikko"));
+
+        for (String directory : new String[] { "/etc/voikko", "/usr/local/lib/voikko", "/usr/local/share/voikko", "/usr/lib/voikko", "/usr/share/voikko" })
+            directories.add(PathUtils.get(directory));
+        return directories;
+    }
+}
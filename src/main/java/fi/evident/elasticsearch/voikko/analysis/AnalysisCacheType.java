@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Locale;
+
+/**
+ * Available implementations of {@link AnalysisCache}, selected with {@code analysisCacheType}.
+ */
+enum AnalysisCacheType {
+
+    /** Access-ordered LRU guarded by a single lock. */
+    LRU {
+        @Override
+        AnalysisCache create(int cacheSize, long maxBytes, AnalysisCacheBreaker breaker) {
+            return new LRUAnalysisCache(cacheSize, maxBytes, breaker);
+        }
+    },
+
+    /** Concurrent cache with lock-free reads and TinyLFU admission. */
+    TINYLFU {
+        @Override
+        AnalysisCache create(int cacheSize, long maxBytes, AnalysisCacheBreaker breaker) {
+            return new TinyLFUAnalysisCache(cacheSize, maxBytes, breaker);
+        }
+    };
+
+    /**
+     * Creates a cache bounded both by number of entries and their estimated size in bytes,
+     * that charges its entries to given breaker.
+     */
+    abstract AnalysisCache create(int cacheSize, long maxBytes, AnalysisCacheBreaker breaker);
+
+    /**
+     * Creates a cache bounded only by number of entries.
+     */
+    AnalysisCache create(int cacheSize) {
+        return create(cacheSize, Long.MAX_VALUE, AnalysisCacheBreaker.UNLIMITED);
+    }
+
+    static AnalysisCacheType fromSetting(String value) {
+        for (AnalysisCacheType type : values())
+            if (type.name().equalsIgnoreCase(value))
+                return type;
+
+        throw new IllegalArgumentException("unknown analysisCacheType '" + value + "', expected 'lru' or 'tinylfu'");
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Logs words whose analysis took longer than configured thresholds, similar to the search and
+ * indexing slow logs of Elasticsearch. Used for finding the words that are pathologically slow
+ * to analyze, e.g. to tune {@code maximumWordSize} and the bypass lists.
+ * <p>
+ * Every word is logged once, at the level of the highest threshold it exceeded, to the
+ * {@code index.voikko.slowlog} logger. Filters without thresholds have no slow log at all.
+ */
+final class AnalysisSlowLog {
+
+    private static final Logger logger = LogManager.getLogger("index.voikko.slowlog");
+
+    private final String index;
+    private final String filter;
+    private final long warnNanos;
+    private final long infoNanos;
+    private final long debugNanos;
+
+    /** Lowest enabled threshold: words analyzed faster than this are not looked at any further */
+    private final long minimumNanos;
+
+    /**
+     * Thresholds are in nanoseconds, negative for disabled levels.
+     */
+    AnalysisSlowLog(String index, String filter, long warnNanos, long infoNanos, long debugNanos) {
+        this.index = index;
+        this.filter = filter;
+        this.warnNanos = warnNanos;
+        this.infoNanos = infoNanos;
+        this.debugNanos = debugNanos;
+
+        long minimum = Long.MAX_VALUE;
+        for (long threshold : new long[] { warnNanos, infoNanos, debugNanos })
+            if (threshold >= 0)
+                minimum = Math.min(minimum, threshold);
+        this.minimumNanos = minimum;
+    }
+
+    /**
+     * Returns the slow log configured by {@code slowlogWarn}, {@code slowlogInfo} and
+     * {@code slowlogDebug}, or {@code null} if none of them is set.
+     */
+    static AnalysisSlowLog fromSettings(String index, String filter, Settings settings) {
+        long warn = settings.getAsTime("slowlogWarn", TimeValue.MINUS_ONE).nanos();
+        long info = settings.getAsTime("slowlogInfo", TimeValue.MINUS_ONE).nanos();
+        long debug = settings.getAsTime("slowlogDebug", TimeValue.MINUS_ONE).nanos();
+
+        if (warn < 0 && info < 0 && debug < 0)
+            return null;
+
+        return new AnalysisSlowLog(index, filter, warn, info, debug);
+    }
+
+    /**
+     * Logs the word if its analysis took at least as long as one of the thresholds.
+     */
+    void maybeLog(String word, long tookNanos) {
+        if (tookNanos < minimumNanos)
+            return;
+
+        Level level = levelOf(tookNanos);
+        if (level != null && logger.isEnabled(level))
+            logger.log(level, "[{}][{}] took[{}], took_micros[{}], length[{}], word[{}]",
+                    index, filter, TimeValue.timeValueNanos(tookNanos), tookNanos / 1000, word.length(), word);
+    }
+
+    /**
+     * Returns the level of the highest threshold exceeded by given time, or {@code null} if none was.
+     */
+    Level levelOf(long tookNanos) {
+        if (warnNanos >= 0 && tookNanos >= warnNanos)
+            return Level.WARN;
+        if (infoNanos >= 0 && tookNanos >= infoNanos)
+            return Level.INFO;
+        if (debugNanos >= 0 && tookNanos >= debugNanos)
+            return Level.DEBUG;
+        return null;
+    }
+}
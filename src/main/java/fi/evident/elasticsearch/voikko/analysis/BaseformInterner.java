@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Deduplicates analysis results before they are cached.
+ * <p>
+ * Thousands of inflected forms share the same base forms, so instead of storing a fresh list for
+ * every word, the cache stores a single immutable list per distinct result and a single string per
+ * distinct base form. Empty results all share {@link java.util.Collections#emptyList()}, and words
+ * that are their own base form share the list of that base form with its other inflections.
+ * <p>
+ * The interner is bounded: when it is full, new results and base forms are returned as they are
+ * without being shared. The interner is only emptied together with its cache, so its strings stay
+ * alive exactly as long as it counts them: the shared base forms are accounted here once, and
+ * entries only count the base forms that are not shared (see {@link #isShared(String)}).
+ */
+final class BaseformInterner {
+
+    /** Estimated bytes of a table entry of the interner, not counting the interned object */
+    private static final int TABLE_ENTRY_BYTES = 40;
+
+    /** Estimated bytes of an interned list, not counting the references to its base forms */
+    private static final int LIST_OVERHEAD_BYTES = 32;
+
+    private final int maxSize;
+    private final AnalysisCacheBreaker breaker;
+    private final ConcurrentHashMap<List<String>, List<String>> results = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> baseForms = new ConcurrentHashMap<>();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+
+    BaseformInterner(int maxSize, AnalysisCacheBreaker breaker) {
+        this.maxSize = maxSize;
+        this.breaker = breaker;
+    }
+
+    List<String> intern(List<String> result) {
+        if (result.isEmpty())
+            return emptyList();
+
+        List<String> existing = results.get(result);
+        if (existing != null)
+            return existing;
+
+        List<String> compact;
+        if (result.size() == 1) {
+            compact = singletonList(internBaseForm(result.get(0)));
+        } else {
+            String[] array = new String[result.size()];
+            for (int i = 0; i < array.length; i++)
+                array[i] = internBaseForm(result.get(i));
+            compact = unmodifiableList(Arrays.asList(array));
+        }
+
+        if (results.size() >= maxSize)
+            return compact;
+
+        existing = results.putIfAbsent(compact, compact);
+        if (existing != null)
+            return existing;
+
+        addBytes(TABLE_ENTRY_BYTES + LIST_OVERHEAD_BYTES + 8L * compact.size());
+        return compact;
+    }
+
+    private String internBaseForm(String baseForm) {
+        String existing = baseForms.get(baseForm);
+        if (existing != null)
+            return existing;
+
+        if (baseForms.size() >= maxSize)
+            return baseForm;
+
+        existing = baseForms.putIfAbsent(baseForm, baseForm);
+        if (existing != null)
+            return existing;
+
+        addBytes(TABLE_ENTRY_BYTES + AnalysisCache.estimateBytes(baseForm));
+        return baseForm;
+    }
+
+    /**
+     * Returns true if given base form is the instance held by this interner, and thus counted here
+     * instead of by the entries referring to it.
+     */
+    boolean isShared(String baseForm) {
+        return baseForms.get(baseForm) == baseForm;
+    }
+
+    /**
+     * Returns the estimated heap used by the interned lists and base forms, in bytes.
+     */
+    long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    private void addBytes(long bytes) {
+        estimatedBytes.addAndGet(bytes);
+        breaker.addBytes(bytes);
+    }
+
+    void clear() {
+        results.clear();
+        baseForms.clear();
+        breaker.addBytes(-estimatedBytes.getAndSet(0));
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.OffHeapFSTStore;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptyList;
+
+/**
+ * Precompiled mapping from word forms to their base forms, stored as a Lucene FST.
+ * <p>
+ * The file is created offline with {@link BaseformLexiconCompiler} and memory-mapped
+ * when opened, so the FST is not loaded on heap. Words that Voikko could not analyze
+ * are stored as well, with an empty list of base forms.
+ */
+final class BaseformLexicon implements Closeable {
+
+    private static final String CODEC_NAME = "VoikkoBaseformLexicon";
+    private static final int VERSION = 0;
+
+    /** Separates base forms in FST outputs. Can't appear in words produced by the tokenizer. */
+    private static final byte SEPARATOR = 0;
+
+    private final Directory directory;
+    private final IndexInput input;
+    private final FST<BytesRef> fst;
+
+    private BaseformLexicon(Directory directory, IndexInput input, FST<BytesRef> fst) {
+        this.directory = directory;
+        this.input = input;
+        this.fst = fst;
+    }
+
+    static BaseformLexicon open(Path file) throws IOException {
+        Directory directory = FSDirectory.open(file.toAbsolutePath().getParent());
+        IndexInput input = null;
+        try {
+            input = directory.openInput(file.getFileName().toString(), IOContext.READ);
+            CodecUtil.checksumEntireFile(input);
+            CodecUtil.checkHeader(input, CODEC_NAME, VERSION, VERSION);
+            FST<BytesRef> fst = new FST<>(input, ByteSequenceOutputs.getSingleton(), new OffHeapFSTStore());
+            return new BaseformLexicon(directory, input, fst);
+        } catch (IOException | RuntimeException e) {
+            if (input != null)
+                input.close();
+            directory.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the base forms of given word or {@code null} if the word is not in the lexicon.
+     */
+    List<String> lookup(CharSequence word) throws IOException {
+        return lookup(word, new IntsRefBuilder());
+    }
+
+    /**
+     * Like {@link #lookup(CharSequence)}, but reuses given scratch buffer for the FST input.
+     */
+    List<String> lookup(CharSequence word, IntsRefBuilder scratch) throws IOException {
+        BytesRef output = Util.get(fst, Util.toUTF16(word, scratch));
+        return output != null ? decode(output) : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            input.close();
+        } finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * Writes a lexicon containing given entries. Sorted map is required since the FST
+     * must be built in order, and the natural ordering of strings matches the UTF-16 input.
+     */
+    static void write(Path file, SortedMap<String, List<String>> entries) throws IOException {
+        Builder<BytesRef> builder = new Builder<>(FST.INPUT_TYPE.BYTE2, ByteSequenceOutputs.getSingleton());
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        for (Map.Entry<String, List<String>> entry : entries.entrySet())
+            builder.add(Util.toUTF16(entry.getKey(), scratch), encode(entry.getValue()));
+
+        FST<BytesRef> fst = builder.finish();
+        if (fst == null)
+            throw new IllegalArgumentException("can't write an empty lexicon");
+
+        Path absoluteFile = file.toAbsolutePath();
+        Files.deleteIfExists(absoluteFile);
+        try (Directory directory = FSDirectory.open(absoluteFile.getParent());
+             IndexOutput output = directory.createOutput(absoluteFile.getFileName().toString(), IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(output, CODEC_NAME, VERSION);
+            fst.save(output);
+            CodecUtil.writeFooter(output);
+        }
+    }
+
+    private static BytesRef encode(List<String> baseForms) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (String baseForm : baseForms) {
+            byte[] bytes = baseForm.getBytes(UTF_8);
+            out.write(bytes, 0, bytes.length);
+            out.write(SEPARATOR);
+        }
+        return new BytesRef(out.toByteArray());
+    }
+
+    private static List<String> decode(BytesRef bytes) {
+        if (bytes.length == 0)
+            return emptyList();
+
+        List<String> baseForms = new ArrayList<>(2);
+        int start = bytes.offset;
+        int end = bytes.offset + bytes.length;
+        for (int i = start; i < end; i++) {
+            if (bytes.bytes[i] == SEPARATOR) {
+                baseForms.add(new String(bytes.bytes, start, i - start, UTF_8));
+                start = i + 1;
+            }
+        }
+        return baseForms;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.common.SuppressForbidden;
+import org.elasticsearch.common.io.PathUtils;
+import org.puimula.libvoikko.Voikko;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Command line tool that analyzes a list of words with Voikko and writes the results
+ * into a {@link BaseformLexicon} that can be configured with {@code lexiconPath}.
+ * <p>
+ * The word list is read as UTF-8 with one word per line. Anything after the first
+ * whitespace on a line is ignored, so frequency lists of form {@code word count}
+ * can be used as they are.
+ */
+@SuppressForbidden(reason = "Command line tool writes to standard streams")
+public final class BaseformLexiconCompiler {
+
+    private static final String USAGE =
+            "usage: BaseformLexiconCompiler [--language fi_FI] [--dictionaryPath dir] [--libraryPath dir] words.txt lexicon.fst";
+
+    private BaseformLexiconCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String language = "fi_FI";
+        String dictionaryPath = null;
+        List<String> files = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--language":
+                    language = argumentValue(args, ++i);
+                    break;
+                case "--dictionaryPath":
+                    dictionaryPath = argumentValue(args, ++i);
+                    break;
+                case "--libraryPath":
+                    Voikko.addLibraryPath(argumentValue(args, ++i));
+                    break;
+                default:
+                    files.add(args[i]);
+            }
+        }
+
+        if (files.size() != 2) {
+            System.err.println(USAGE);
+            System.exit(1);
+        }
+
+        Path wordList = PathUtils.get(files.get(0));
+        Path lexiconFile = PathUtils.get(files.get(1));
+
+        SortedMap<String, List<String>> entries = analyzeWords(readWords(wordList), language, dictionaryPath);
+        BaseformLexicon.write(lexiconFile, entries);
+
+        System.out.println("Wrote " + entries.size() + " words to " + lexiconFile);
+    }
+
+    private static String argumentValue(String[] args, int index) {
+        if (index >= args.length)
+            throw new IllegalArgumentException(USAGE);
+        return args[index];
+    }
+
+    /**
+     * Reads the words of a word list or a frequency list.
+     */
+    static List<String> readWords(Path file) throws IOException {
+        List<String> words = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String word = line.trim().split("\\s+", 2)[0];
+                if (!word.isEmpty())
+                    words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static SortedMap<String, List<String>> analyzeWords(List<String> words, String language, String dictionaryPath) {
+        SortedMap<String, List<String>> entries = new TreeMap<>();
+        MorphologicalAnalyzer voikko = LibvoikkoAnalyzer.create(language, dictionaryPath);
+        try {
+            for (String word : words)
+                if (!entries.containsKey(word))
+                    entries.put(word, voikko.baseForms(word));
+        } finally {
+            voikko.terminate();
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Locale;
+
+/**
+ * Whether a filter is used for analyzing documents or queries, which decides the part of a shared
+ * cache it stores its results in.
+ */
+enum CacheRole {
+
+    /** Store results in the main cache. */
+    INDEX,
+
+    /** Store results in a separate segment of the cache that indexing can't evict. */
+    SEARCH;
+
+    static CacheRole fromSetting(String value) {
+        for (CacheRole role : values())
+            if (role.name().equalsIgnoreCase(value))
+                return role;
+
+        throw new IllegalArgumentException("unknown cacheRole '" + value + "', expected 'index' or 'search'");
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Locale;
+
+/**
+ * Casing of the base forms of words that were analyzed in lowercase with {@code foldCase}.
+ */
+enum CaseOutput {
+
+    /** Keep base forms as Voikko returns them, e.g. proper nouns capitalized. */
+    DICTIONARY {
+        @Override
+        String apply(String baseForm, char[] original, int length) {
+            return baseForm;
+        }
+    },
+
+    /** Convert base forms to lowercase. */
+    LOWERCASE {
+        @Override
+        String apply(String baseForm, char[] original, int length) {
+            return baseForm.toLowerCase(Locale.ROOT);
+        }
+    },
+
+    /** Case base forms like the original word: all uppercase, capitalized or lowercase. */
+    ORIGINAL {
+        @Override
+        String apply(String baseForm, char[] original, int length) {
+            if (baseForm.isEmpty())
+                return baseForm;
+            if (length == 0 || !Character.isUpperCase(original[0]))
+                return baseForm.toLowerCase(Locale.ROOT);
+
+            for (int i = 1; i < length; i++)
+                if (Character.isLowerCase(original[i]))
+                    return Character.toUpperCase(baseForm.charAt(0)) + baseForm.substring(1).toLowerCase(Locale.ROOT);
+
+            return length > 1 ? baseForm.toUpperCase(Locale.ROOT) : Character.toUpperCase(baseForm.charAt(0)) + baseForm.substring(1);
+        }
+    };
+
+    /**
+     * Returns the base form cased according to this policy, given the characters of the original token.
+     */
+    abstract String apply(String baseForm, char[] original, int length);
+
+    static CaseOutput fromSetting(String value) {
+        for (CaseOutput output : values())
+            if (output.name().equalsIgnoreCase(value))
+                return output;
+
+        throw new IllegalArgumentException("unknown caseOutput '" + value + "', expected 'dictionary', 'lowercase' or 'original'");
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
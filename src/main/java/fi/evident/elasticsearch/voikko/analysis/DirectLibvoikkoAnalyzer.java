@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.SpecialPermission;
+import org.puimula.libvoikko.VoikkoException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * {@link MorphologicalAnalyzer} calling native libvoikko through JNA direct mapping.
+ * <p>
+ * The JNA binding of libvoikko calls the library through a reflective interface proxy and
+ * converts every analysis into a map of all of its attributes, although only the base form
+ * is needed. This analyzer binds the few functions it uses as native methods, passes words
+ * to libvoikko in a native buffer reused by the instance and reads only {@code BASEFORM}.
+ * <p>
+ * If the functions can't be bound, {@link #isAvailable()} returns false and the JNA binding
+ * should be used instead. The functions are bound once per JVM, on first use, to the library found
+ * from the library path of the filter that used them first.
+ */
+final class DirectLibvoikkoAnalyzer implements MorphologicalAnalyzer {
+
+    private static final Logger logger = LogManager.getLogger(DirectLibvoikkoAnalyzer.class);
+
+    /** Library path of the filter that bound libvoikko, or {@code null} if it hasn't been bound */
+    private static List<String> boundLibraryPath;
+
+    /** True if binding failed and there is no new library path to try */
+    private static boolean bindFailed;
+
+    /** Key of the base form attribute as a null-terminated string */
+    private static final Memory BASEFORM_KEY = nullTerminated("BASEFORM".getBytes(StandardCharsets.UTF_8));
+
+    private Pointer handle;
+    private Memory wordBuffer = new Memory(64);
+
+    private DirectLibvoikkoAnalyzer(Pointer handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * Returns true if libvoikko was found and its functions could be bound.
+     */
+    static boolean isAvailable() {
+        return bind(emptyList());
+    }
+
+    /**
+     * Binds libvoikko for a filter configured with given library path, unless it has already been bound.
+     * Native methods can't be bound again, so a filter that asks for libvoikko from another library path
+     * than the one it was bound from is rejected, instead of letting it silently use the bound library.
+     *
+     * @return true if libvoikko was found and its functions could be bound
+     */
+    static synchronized boolean bind(List<String> libraryPath) {
+        if (boundLibraryPath != null) {
+            if (!libraryPath.isEmpty() && !libraryPath.equals(boundLibraryPath))
+                throw new IllegalArgumentException("libvoikko is already bound directly from libraryPath " + boundLibraryPath
+                        + ", backend 'libvoikko_direct' can't use libraryPath " + libraryPath);
+            return true;
+        }
+
+        if (bindFailed && libraryPath.isEmpty())
+            return false;
+
+        if (!register()) {
+            bindFailed = true;
+            return false;
+        }
+
+        boundLibraryPath = libraryPath;
+        return true;
+    }
+
+    static DirectLibvoikkoAnalyzer create(String language, String dictionaryPath) {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(new SpecialPermission());
+
+        return AccessController.doPrivileged((PrivilegedAction<DirectLibvoikkoAnalyzer>) () -> {
+            if (!isAvailable())
+                throw new VoikkoNativeLibraryNotFoundException(new UnsatisfiedLinkError("libvoikko could not be bound"));
+
+            PointerByReference error = new PointerByReference();
+            Pointer handle = voikkoInit(error, language, dictionaryPath);
+            if (handle == null) {
+                Pointer message = error.getValue();
+                throw new VoikkoException(message != null ? message.getString(0, "UTF-8") : "failed to initialize libvoikko");
+            }
+            return new DirectLibvoikkoAnalyzer(handle);
+        });
+    }
+
+    @Override
+    public List<String> baseForms(String word) {
+        if (handle == null)
+            throw new IllegalStateException("Attempt to use terminated analyzer.");
+        if (word.indexOf('\0') >= 0)
+            return emptyList(); // libvoikko would see only the part before the null
+
+        Pointer analyses = voikkoAnalyzeWordCstr(handle, toNativeWord(word));
+        if (analyses == null)
+            return emptyList();
+
+        try {
+            List<String> baseForms = new ArrayList<>(2);
+            for (long offset = 0; ; offset += Native.POINTER_SIZE) {
+                Pointer analysis = analyses.getPointer(offset);
+                if (analysis == null)
+                    return baseForms;
+
+                Pointer value = voikko_mor_analysis_value_cstr(analysis, BASEFORM_KEY);
+                if (value != null) {
+                    try {
+                        baseForms.add(value.getString(0, "UTF-8"));
+                    } finally {
+                        voikko_free_mor_analysis_value_cstr(value);
+                    }
+                }
+            }
+        } finally {
+            voikko_free_mor_analysis(analyses);
+        }
+    }
+
+    @Override
+    public void terminate() {
+        if (handle != null) {
+            voikkoTerminate(handle);
+            handle = null;
+        }
+    }
+
+    /**
+     * Copies given word as a null-terminated UTF-8 string to the buffer of this instance,
+     * growing the buffer if needed.
+     */
+    private Pointer toNativeWord(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        if (wordBuffer.size() <= bytes.length)
+            wordBuffer = new Memory(Math.max(bytes.length + 1, 2 * wordBuffer.size()));
+
+        wordBuffer.write(0, bytes, 0, bytes.length);
+        wordBuffer.setByte(bytes.length, (byte) 0);
+        return wordBuffer;
+    }
+
+    private static Memory nullTerminated(byte[] bytes) {
+        Memory memory = new Memory(bytes.length + 1);
+        memory.write(0, bytes, 0, bytes.length);
+        memory.setByte(bytes.length, (byte) 0);
+        return memory;
+    }
+
+    private static boolean register() {
+        return AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> {
+            try {
+                Native.register(DirectLibvoikkoAnalyzer.class, NativeLibrary.getInstance(Platform.isWindows() ? "libvoikko-1" : "voikko"));
+                return true;
+            } catch (UnsatisfiedLinkError | RuntimeException e) {
+                logger.warn("failed to bind libvoikko directly, falling back to the JNA binding", e);
+                return false;
+            }
+        });
+    }
+
+    private static native Pointer voikkoInit(PointerByReference error, String language, String path);
+
+    private static native void voikkoTerminate(Pointer handle);
+
+    private static native Pointer voikkoAnalyzeWordCstr(Pointer handle, Pointer word);
+
+    private static native Pointer voikko_mor_analysis_value_cstr(Pointer analysis, Pointer key);
+
+    private static native void voikko_free_mor_analysis_value_cstr(Pointer value);
+
+    private static native void voikko_free_mor_analysis(Pointer analyses);
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.analysis.CharacterUtils;
+import org.apache.lucene.analysis.CharacterUtils.CharacterBuffer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+import java.io.IOException;
+
+/**
+ * Tokenizer that splits text like {@link FinnishTokenizer} and lowercases the tokens while copying
+ * them to the term buffer, producing the same tokens as {@code finnish} followed by {@code lowercase}
+ * without a separate pass over every token.
+ * <p>
+ * This follows the implementation of {@link org.apache.lucene.analysis.util.CharTokenizer}, including
+ * its maximum token length, so that tokens and offsets are identical to the unfused chain.
+ */
+final class FinnishLowerCaseTokenizer extends Tokenizer {
+
+    private static final int MAX_TOKEN_LENGTH = 255;
+    private static final int IO_BUFFER_SIZE = 4096;
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+    private final CharacterBuffer ioBuffer = CharacterUtils.newCharacterBuffer(IO_BUFFER_SIZE);
+
+    private int offset = 0;
+    private int bufferIndex = 0;
+    private int dataLength = 0;
+    private int finalOffset = 0;
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        clearAttributes();
+        int length = 0;
+        int start = -1;
+        int end = -1;
+        char[] buffer = termAttribute.buffer();
+        while (true) {
+            if (bufferIndex >= dataLength) {
+                offset += dataLength;
+                CharacterUtils.fill(ioBuffer, input);
+                if (ioBuffer.getLength() == 0) {
+                    dataLength = 0;
+                    if (length > 0)
+                        break;
+
+                    finalOffset = correctOffset(offset);
+                    return false;
+                }
+                dataLength = ioBuffer.getLength();
+                bufferIndex = 0;
+            }
+
+            int c = Character.codePointAt(ioBuffer.getBuffer(), bufferIndex, ioBuffer.getLength());
+            int charCount = Character.charCount(c);
+            bufferIndex += charCount;
+
+            if (isTokenChar(c)) {
+                if (length == 0) {
+                    start = offset + bufferIndex - charCount;
+                    end = start;
+                } else if (length >= buffer.length - 1) {
+                    buffer = termAttribute.resizeBuffer(2 + length); // make sure a supplementary character fits
+                }
+                end += charCount;
+                length += Character.toChars(Character.toLowerCase(c), buffer, length);
+                if (length >= MAX_TOKEN_LENGTH)
+                    break;
+            } else if (length > 0) {
+                break;
+            }
+        }
+
+        termAttribute.setLength(length);
+        offsetAttribute.setOffset(correctOffset(start), finalOffset = correctOffset(end));
+        return true;
+    }
+
+    /**
+     * Same as {@link FinnishTokenizer#isTokenChar(int)}.
+     */
+    private static boolean isTokenChar(int c) {
+        return Character.isLetterOrDigit(c) || c == '-';
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        offsetAttribute.setOffset(finalOffset, finalOffset);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        bufferIndex = 0;
+        offset = 0;
+        dataLength = 0;
+        finalOffset = 0;
+        ioBuffer.reset();
+    }
+}
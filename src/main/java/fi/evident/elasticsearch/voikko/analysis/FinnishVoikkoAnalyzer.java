@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+
+/**
+ * Analyzer equivalent to {@code finnish} tokenizer followed by {@code lowercase} and {@code voikko} filters,
+ * with tokenizing and lowercasing fused into {@link FinnishLowerCaseTokenizer}.
+ * <p>
+ * Components are reused per thread by the default reuse strategy of {@link Analyzer}.
+ */
+public final class FinnishVoikkoAnalyzer extends Analyzer {
+
+    private final VoikkoTokenFilterFactory filterFactory;
+
+    FinnishVoikkoAnalyzer(VoikkoTokenFilterFactory filterFactory) {
+        this.filterFactory = filterFactory;
+    }
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer tokenizer = new FinnishLowerCaseTokenizer();
+        return new TokenStreamComponents(tokenizer, filterFactory.create(tokenizer));
+    }
+
+    @Override
+    protected TokenStream normalize(String fieldName, TokenStream in) {
+        return new LowerCaseFilter(in);
+    }
+}
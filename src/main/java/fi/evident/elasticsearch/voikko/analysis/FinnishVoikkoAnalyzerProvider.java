@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AbstractIndexAnalyzerProvider;
+
+import java.io.IOException;
+
+/**
+ * Provides the {@code finnish_voikko} analyzer. Accepts the same settings as the {@code voikko}
+ * filter, except that {@code shared} defaults to true, so that all indices using the analyzer
+ * share the resources of the node.
+ */
+public final class FinnishVoikkoAnalyzerProvider extends AbstractIndexAnalyzerProvider<FinnishVoikkoAnalyzer> {
+
+    private final FinnishVoikkoAnalyzer analyzer;
+
+    public FinnishVoikkoAnalyzerProvider(IndexSettings indexSettings,
+                                         Environment environment,
+                                         String name,
+                                         Settings settings,
+                                         VoikkoResourceRegistry registry) throws IOException {
+        super(indexSettings, name, settings);
+
+        Settings filterSettings = Settings.builder().put("shared", true).put(settings).build();
+        analyzer = new FinnishVoikkoAnalyzer(new VoikkoTokenFilterFactory(indexSettings, environment, name, filterSettings, registry));
+    }
+
+    @Override
+    public FinnishVoikkoAnalyzer get() {
+        return analyzer;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link AnalysisCache} backed by {@link LRUCache}. Every access goes through a single fair lock.
+ */
+final class LRUAnalysisCache implements AnalysisCache {
+
+    private final LRUCache<WordKey, List<String>> cache;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final AnalysisCacheStats stats = new AnalysisCacheStats();
+    private final BaseformInterner interner;
+    private final long maxBytes;
+    private final AnalysisCacheBreaker breaker;
+
+    /** Guarded by lock */
+    private long estimatedBytes = 0;
+
+    private volatile int generation = 0;
+
+    LRUAnalysisCache(int cacheSize, long maxBytes, AnalysisCacheBreaker breaker) {
+        this.cache = new LRUCache<>(cacheSize, this::onEviction);
+        this.interner = new BaseformInterner(cacheSize, breaker);
+        this.maxBytes = maxBytes;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public List<String> get(WordKey word) {
+        // Note that it seems that we could use a read/write -lock here and grab only the read-lock
+        // when retrieving stuff from cache, but this will not work because the cache uses access-order,
+        // meaning that every read will actually mutate the cache.
+        List<String> result;
+        lock.lock();
+        try {
+            result = cache.get(word);
+        } finally {
+            lock.unlock();
+        }
+
+        if (result != null)
+            stats.recordHit();
+        else
+            stats.recordMiss();
+        return result;
+    }
+
+    @Override
+    public void put(WordKey word, List<String> result) {
+        List<String> compact = interner.intern(result);
+        WordKey key = word.copy();
+
+        lock.lock();
+        try {
+            List<String> previous = cache.put(key, compact);
+            if (previous != null)
+                addBytes(-AnalysisCache.estimateBytes(key, previous, interner));
+            addBytes(AnalysisCache.estimateBytes(key, compact, interner));
+
+            Iterator<Map.Entry<WordKey, List<String>>> eldest = cache.entrySet().iterator();
+            while (eldest.hasNext()) {
+                boolean overMaxBytes = estimatedBytes + interner.getEstimatedBytes() > maxBytes;
+                if (!overMaxBytes && !breaker.isOverLimit())
+                    break;
+
+                Map.Entry<WordKey, List<String>> entry = eldest.next();
+                eldest.remove();
+                onEviction(entry.getKey(), entry.getValue());
+                if (!overMaxBytes)
+                    breaker.recordShed();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called with lock held when an entry is evicted.
+     */
+    private void onEviction(WordKey word, List<String> result) {
+        addBytes(-AnalysisCache.estimateBytes(word, result, interner));
+        stats.recordEviction();
+    }
+
+    private void addBytes(long bytes) {
+        estimatedBytes += bytes;
+        breaker.addBytes(bytes);
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            cache.clear();
+            addBytes(-estimatedBytes);
+            interner.clear();
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the most recently used entries.
+     */
+    @Override
+    public Map<String, List<String>> hottest(int count) {
+        List<Map.Entry<WordKey, List<String>>> entries;
+        lock.lock();
+        try {
+            entries = new ArrayList<>(cache.entrySet());
+        } finally {
+            lock.unlock();
+        }
+
+        Map<String, List<String>> hottest = new LinkedHashMap<>();
+        for (int i = entries.size() - 1; i >= 0 && hottest.size() < count; i--)
+            hottest.put(entries.get(i).getKey().toString(), entries.get(i).getValue());
+        return hottest;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        lock.lock();
+        try {
+            return estimatedBytes + interner.getEstimatedBytes();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public AnalysisCacheStats getStats() {
+        return stats;
+    }
+}
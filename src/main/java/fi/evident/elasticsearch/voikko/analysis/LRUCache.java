@@ -19,6 +19,7 @@ package fi.evident.elasticsearch.voikko.analysis;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 /**
  * A bounded cache that evicts least recently used items when it becomes full.
@@ -26,15 +27,28 @@ import java.util.Map;
 final class LRUCache<K,V> extends LinkedHashMap<K,V> {
 
     private final int maxSize;
+    private final BiConsumer<K,V> evictionListener;
     private static final float LOAD_FACTOR = 0.75F;
 
     LRUCache(int maxSize) {
+        this(maxSize, (key, value) -> {});
+    }
+
+    /**
+     * Creates a cache that calls given listener whenever an item is evicted.
+     */
+    LRUCache(int maxSize, BiConsumer<K,V> evictionListener) {
         super(maxSize + 1, LOAD_FACTOR, true);
         this.maxSize = maxSize;
+        this.evictionListener = evictionListener;
     }
 
     @Override
     protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
-        return size() > maxSize;
+        if (size() > maxSize) {
+            evictionListener.accept(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+        return false;
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with power-of-two buckets, cheap enough to record every call.
+ * Percentiles are reported as the upper bound of the bucket they fall in, so they are
+ * accurate to within a factor of two.
+ */
+final class LatencyHistogram implements ToXContentFragment {
+
+    /** Bucket {@code i} holds durations below 2<sup>i</sup> nanoseconds, the last one everything longer */
+    private static final int BUCKETS = 40;
+
+    private static final double[] REPORTED_PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(duration))].increment();
+        totalNanos.add(duration);
+    }
+
+    /**
+     * Adds the values recorded to this histogram to given histogram.
+     */
+    void addTo(LatencyHistogram target) {
+        for (int i = 0; i < buckets.length; i++)
+            target.buckets[i].add(buckets[i].sum());
+        target.totalNanos.add(totalNanos.sum());
+    }
+
+    long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets)
+            count += bucket.sum();
+        return count;
+    }
+
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing given percentile, or 0 if nothing has been recorded.
+     */
+    long percentile(double percentile) {
+        long[] counts = new long[buckets.length];
+        long count = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return 1L << i;
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.field("count", getCount());
+        builder.field("total_time_in_nanos", getTotalNanos());
+        builder.startObject("percentiles_in_nanos");
+        for (double percentile : REPORTED_PERCENTILES)
+            builder.field(String.valueOf(percentile), percentile(percentile));
+        builder.endObject();
+        return builder;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.util.IntsRefBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import static java.util.Collections.emptyList;
+
+/**
+ * {@link MorphologicalAnalyzer} that only looks words up from a precompiled {@link BaseformLexicon}.
+ * Doesn't own the lexicon, so terminating the analyzer leaves the lexicon open.
+ */
+final class LexiconAnalyzer implements MorphologicalAnalyzer {
+
+    private final BaseformLexicon lexicon;
+    private final IntsRefBuilder scratch = new IntsRefBuilder();
+
+    LexiconAnalyzer(BaseformLexicon lexicon) {
+        this.lexicon = lexicon;
+    }
+
+    @Override
+    public List<String> baseForms(String word) {
+        try {
+            List<String> result = lexicon.lookup(word, scratch);
+            return result != null ? result : emptyList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void terminate() {
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.SpecialPermission;
+import org.puimula.libvoikko.Analysis;
+import org.puimula.libvoikko.Voikko;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link MorphologicalAnalyzer} using native libvoikko through its JNA binding.
+ */
+final class LibvoikkoAnalyzer implements MorphologicalAnalyzer {
+
+    private final Voikko voikko;
+
+    private LibvoikkoAnalyzer(Voikko voikko) {
+        this.voikko = voikko;
+    }
+
+    static LibvoikkoAnalyzer create(String language, String dictionaryPath) {
+        SecurityManager sm = System.getSecurityManager();
+        if (sm != null)
+            sm.checkPermission(new SpecialPermission());
+
+        return AccessController.doPrivileged((PrivilegedAction<LibvoikkoAnalyzer>) () -> {
+            try {
+                return new LibvoikkoAnalyzer(new Voikko(language, dictionaryPath));
+            } catch (UnsatisfiedLinkError e) {
+                throw new VoikkoNativeLibraryNotFoundException(e);
+            }
+        });
+    }
+
+    @Override
+    public List<String> baseForms(String word) {
+        List<Analysis> results = voikko.analyze(word);
+        List<String> baseForms = new ArrayList<>(results.size());
+
+        for (Analysis result : results) {
+            String baseForm = result.get("BASEFORM");
+            if (baseForm != null)
+                baseForms.add(baseForm);
+        }
+        return baseForms;
+    }
+
+    @Override
+    public void terminate() {
+        voikko.terminate();
+    }
+}
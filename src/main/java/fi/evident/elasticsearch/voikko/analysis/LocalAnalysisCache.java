@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.util.CloseableThreadLocal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small thread-confined caches consulted before the shared {@link AnalysisCache} of a filter.
+ * <p>
+ * Every thread gets a direct-mapped {@link Table} of its own, reused by all token streams the thread
+ * runs, so the inflected forms repeating within a document are found without touching memory written
+ * by other threads. A word colliding with another simply replaces it. Tables are invalidated lazily:
+ * {@link #invalidate()} bumps a generation counter, and a table that sees a new generation, or a new
+ * {@linkplain AnalysisCache#getGeneration() generation of the shared cache}, drops its entries before
+ * the next lookup. Clearing the shared cache thus also clears the tables of every filter using it.
+ * <p>
+ * Hits in the tables are not recorded in the shared cache, so a word repeated within the documents
+ * of a thread counts as a single access for the admission and eviction policy of the shared cache.
+ * Recording them would mean writing to shared memory on every hit, which the tables exist to avoid.
+ */
+final class LocalAnalysisCache {
+
+    private final int size;
+    private final AnalysisCache sharedCache;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final CloseableThreadLocal<Table> tables = new CloseableThreadLocal<Table>() {
+        @Override
+        protected Table initialValue() {
+            return new Table();
+        }
+    };
+
+    /**
+     * @param size number of entries per thread, rounded up to a power of two
+     * @param sharedCache the cache whose results are copied to the tables
+     */
+    LocalAnalysisCache(int size, AnalysisCache sharedCache) {
+        if (size <= 0)
+            throw new IllegalArgumentException("size must be positive, but was " + size);
+        this.size = size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        this.sharedCache = sharedCache;
+    }
+
+    /**
+     * Returns the table of the calling thread. The table must be used only by that thread.
+     */
+    Table forCurrentThread() {
+        return tables.get();
+    }
+
+    /**
+     * Drops the entries of all threads, e.g. when the filter is replaced.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+    }
+
+    void close() {
+        tables.close();
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    final class Table {
+
+        private final WordKey[] keys = new WordKey[size];
+        @SuppressWarnings("unchecked")
+        private final List<String>[] values = new List[size];
+        private int tableGeneration = generation.get();
+        private int cacheGeneration = sharedCache.getGeneration();
+
+        /**
+         * Returns the base forms of given word or {@code null} if the word is not in this table.
+         */
+        List<String> get(WordKey word) {
+            if (tableGeneration != generation.get() || cacheGeneration != sharedCache.getGeneration()) {
+                Arrays.fill(keys, null);
+                Arrays.fill(values, null);
+                tableGeneration = generation.get();
+                cacheGeneration = sharedCache.getGeneration();
+                return null;
+            }
+
+            int slot = slot(word);
+            return word.equals(keys[slot]) ? values[slot] : null;
+        }
+
+        void put(WordKey word, List<String> result) {
+            int slot = slot(word);
+            keys[slot] = word.copy();
+            values[slot] = result;
+        }
+
+        private int slot(WordKey word) {
+            int h = word.hashCode();
+            return (h ^ (h >>> 16)) & (keys.length - 1);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.List;
+
+/**
+ * Analyzer that returns the base forms of words. Instances are pooled by {@link VoikkoPool}
+ * and are used by one thread at a time.
+ */
+interface MorphologicalAnalyzer {
+
+    /**
+     * Returns the base forms of given word, or an empty list if the word can't be analyzed.
+     */
+    List<String> baseForms(String word);
+
+    /**
+     * Releases the resources held by this analyzer. The analyzer can't be used afterwards.
+     */
+    void terminate();
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate set of words that Voikko could not analyze, so that the expensive analysis
+ * of unknown words such as names, codes and typos is not repeated.
+ * <p>
+ * This is a counting Bloom filter with 4-bit counters, sized with 16 counters per expected word
+ * so that less than 0.1% of other words are falsely reported as unknown. After the number of
+ * additions reaches the expected number of words, all counters are halved: words that were seen
+ * only once are forgotten and will be analyzed again, while recurring ones are kept. This also
+ * bounds how long a word stays unknown after the dictionary has been updated.
+ * <p>
+ * Thread-safe without locking. Concurrent aging may lose an increment, which only makes
+ * the filter forget a word early.
+ */
+final class NegativeResultFilter {
+
+    private static final int HASHES = 6;
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final AtomicLongArray table;
+    private final int counterMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger();
+
+    NegativeResultFilter(int expectedWords) {
+        if (expectedWords < 1) throw new IllegalArgumentException("invalid negative filter size: " + expectedWords);
+
+        int counters = FrequencySketch.ceilingPowerOfTwo(Math.max(64, 16 * expectedWords));
+        table = new AtomicLongArray(counters / 16);
+        counterMask = counters - 1;
+        sampleSize = expectedWords;
+    }
+
+    /**
+     * Returns true if the word has probably been added, false if it definitely has not.
+     */
+    boolean mightContain(WordKey word) {
+        long hash = hash(word);
+        for (int i = 0; i < HASHES; i++)
+            if (counterAt(counterIndex(hash, i)) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Remembers that the word could not be analyzed, periodically aging all counters.
+     */
+    void add(WordKey word) {
+        long hash = hash(word);
+        for (int i = 0; i < HASHES; i++)
+            increment(counterIndex(hash, i));
+
+        if (additions.incrementAndGet() == sampleSize) {
+            additions.set(0);
+            age();
+        }
+    }
+
+    /**
+     * Forgets all words.
+     */
+    void clear() {
+        for (int i = 0; i < table.length(); i++)
+            table.set(i, 0);
+        additions.set(0);
+    }
+
+    /**
+     * Returns the size of the counter table in bytes.
+     */
+    long getSizeInBytes() {
+        return 8L * table.length();
+    }
+
+    private int counterAt(int counter) {
+        return (int) (table.get(counter >>> 4) >>> ((counter & 15) << 2)) & 0xf;
+    }
+
+    private void increment(int counter) {
+        int index = counter >>> 4;
+        int offset = (counter & 15) << 2;
+        long mask = 0xfL << offset;
+        while (true) {
+            long value = table.get(index);
+            if ((value & mask) == mask || table.compareAndSet(index, value, value + (1L << offset)))
+                return;
+        }
+    }
+
+    private void age() {
+        for (int i = 0; i < table.length(); i++) {
+            long value;
+            do {
+                value = table.get(i);
+            } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+        }
+    }
+
+    /**
+     * Returns the i:th counter of the word, using double hashing on the halves of the hash.
+     */
+    private int counterIndex(long hash, int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        return (h1 + i * h2) & counterMask;
+    }
+
+    private static long hash(WordKey word) {
+        long h = word.hashCode() * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 32;
+        h *= 0xc2b2ae3d27d4eb4fL;
+        return h ^ (h >>> 29);
+    }
+}
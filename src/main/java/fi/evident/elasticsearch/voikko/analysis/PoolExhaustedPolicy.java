@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Locale;
+
+/**
+ * What the filter does when no Voikko-instance becomes available within {@code acquireTimeout}.
+ */
+enum PoolExhaustedPolicy {
+
+    /** Keep waiting until an instance is released. */
+    BLOCK,
+
+    /** Emit the token without analysis. */
+    PASSTHROUGH,
+
+    /** Emit the token without analysis and serve rest of the token stream only from the cache. */
+    CACHE_ONLY,
+
+    /** Reject the analysis with an exception. */
+    FAIL;
+
+    static PoolExhaustedPolicy fromSetting(String value) {
+        for (PoolExhaustedPolicy policy : values())
+            if (policy.name().equalsIgnoreCase(value))
+                return policy;
+
+        throw new IllegalArgumentException("unknown onPoolExhausted '" + value + "', expected 'block', 'passthrough', 'cache_only' or 'fail'");
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
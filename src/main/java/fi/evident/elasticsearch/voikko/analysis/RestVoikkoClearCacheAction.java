@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * {@code POST _voikko/cache/{index}/{filter}/_clear}: removes all entries from the cache of the
+ * filter on the node receiving the request, and forgets the words it has found unknown. Note that
+ * clearing a shared cache affects all indices sharing it.
+ */
+public final class RestVoikkoClearCacheAction extends BaseRestHandler {
+
+    private final VoikkoResourceRegistry registry;
+
+    public RestVoikkoClearCacheAction(Settings settings, RestController controller, VoikkoResourceRegistry registry) {
+        super(settings);
+        this.registry = registry;
+        controller.registerHandler(POST, "/_voikko/cache/{index}/{filter}/_clear", this);
+    }
+
+    @Override
+    public String getName() {
+        return "voikko_clear_cache_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        VoikkoTokenFilterFactory factory = registry.findFactory(request.param("index"), request.param("filter"));
+
+        return channel -> {
+            AnalysisCache cache = factory.getCache();
+            int size = cache.size();
+            cache.clear(); // also drops the per-thread entries of every filter using the cache
+            if (factory.getNegativeFilter() != null)
+                factory.getNegativeFilter().clear();
+
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.field("cleared", size);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
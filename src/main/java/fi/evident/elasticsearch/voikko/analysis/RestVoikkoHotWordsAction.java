@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * {@code GET _voikko/cache/{index}/{filter}/_hot?size=100}: returns the hottest words in the cache
+ * of the filter on the node receiving the request, in a form that can be saved and used for warming
+ * another cache.
+ */
+public final class RestVoikkoHotWordsAction extends BaseRestHandler {
+
+    private static final int DEFAULT_SIZE = 100;
+
+    private final VoikkoResourceRegistry registry;
+
+    public RestVoikkoHotWordsAction(Settings settings, RestController controller, VoikkoResourceRegistry registry) {
+        super(settings);
+        this.registry = registry;
+        controller.registerHandler(GET, "/_voikko/cache/{index}/{filter}/_hot", this);
+    }
+
+    @Override
+    public String getName() {
+        return "voikko_hot_words_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        VoikkoTokenFilterFactory factory = registry.findFactory(request.param("index"), request.param("filter"));
+        int size = request.paramAsInt("size", DEFAULT_SIZE);
+        if (size < 0)
+            throw new IllegalArgumentException("size must not be negative: " + size);
+
+        return channel -> {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            builder.startArray("words");
+            for (String word : factory.getCache().hottest(size).keySet())
+                builder.value(word);
+            builder.endArray();
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+        };
+    }
+}
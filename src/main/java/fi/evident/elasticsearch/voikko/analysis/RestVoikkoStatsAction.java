@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+/**
+ * {@code GET _voikko/stats}: statistics of the voikko filters on the node receiving the request.
+ */
+public final class RestVoikkoStatsAction extends BaseRestHandler {
+
+    private final VoikkoResourceRegistry registry;
+
+    public RestVoikkoStatsAction(Settings settings, RestController controller, VoikkoResourceRegistry registry) {
+        super(settings);
+        this.registry = registry;
+        controller.registerHandler(GET, "/_voikko/stats", this);
+    }
+
+    @Override
+    public String getName() {
+        return "voikko_stats_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        return channel -> {
+            VoikkoStats stats = new VoikkoStats(registry.getFactories(), registry.getProcessorResources(), registry.getProcessorStats(),
+                    registry.getBreaker());
+            channel.sendResponse(new BytesRestResponse(RestStatus.OK, stats.toXContent(channel.newBuilder(), request)));
+        };
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+/**
+ * {@code POST _voikko/cache/{index}/{filter}/_warm?path=words.txt}: analyzes the words of given
+ * word list into the cache of the filter on the node receiving the request. The path is resolved
+ * against the config directory. Words are analyzed in parallel, and the response is sent when all
+ * of them have been analyzed.
+ */
+public final class RestVoikkoWarmCacheAction extends BaseRestHandler {
+
+    private final VoikkoResourceRegistry registry;
+
+    public RestVoikkoWarmCacheAction(Settings settings, RestController controller, VoikkoResourceRegistry registry) {
+        super(settings);
+        this.registry = registry;
+        controller.registerHandler(POST, "/_voikko/cache/{index}/{filter}/_warm", this);
+    }
+
+    @Override
+    public String getName() {
+        return "voikko_warm_cache_action";
+    }
+
+    @Override
+    protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+        String index = request.param("index");
+        String filter = request.param("filter");
+        String path = request.param("path");
+        if (path == null)
+            throw new IllegalArgumentException("path of the word list is required");
+
+        VoikkoTokenFilterFactory factory = registry.findFactory(index, filter);
+        Path file = factory.resolveConfigFile(path);
+
+        return channel -> registry.getGenericExecutor().execute(new AbstractRunnable() {
+            @Override
+            protected void doRun() throws Exception {
+                long start = System.nanoTime();
+                List<String> words = BaseformLexiconCompiler.readWords(file);
+                int analyzed = factory.warmCache(words, registry.getExecutor());
+
+                XContentBuilder builder = channel.newBuilder();
+                builder.startObject();
+                builder.field("index", index);
+                builder.field("filter", filter);
+                builder.field("words", words.size());
+                builder.field("analyzed", analyzed);
+                builder.field("took_in_millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                builder.endObject();
+                channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                sendFailure(channel, e);
+            }
+        });
+    }
+
+    private static void sendFailure(RestChannel channel, Exception e) {
+        try {
+            channel.sendResponse(new BytesRestResponse(channel, e));
+        } catch (IOException inner) {
+            inner.addSuppressed(e);
+            throw new IllegalStateException("failed to send failure response", inner);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of query-time analysis results that is isolated from the cache used for indexing.
+ * <p>
+ * Results are stored only in the search segment, so bulk indexing can't evict query terms from it.
+ * Words missing from the segment are looked up from the index cache before analyzing them, and
+ * found results are copied to the segment. All other operations act only on the segment.
+ */
+final class SearchAnalysisCache implements AnalysisCache {
+
+    private final AnalysisCache segment;
+    private final AnalysisCache indexCache;
+
+    SearchAnalysisCache(AnalysisCache segment, AnalysisCache indexCache) {
+        this.segment = segment;
+        this.indexCache = indexCache;
+    }
+
+    @Override
+    public List<String> get(WordKey word) {
+        List<String> result = segment.get(word);
+        if (result == null) {
+            result = indexCache.get(word);
+            if (result != null)
+                segment.put(word, result);
+        }
+        return result;
+    }
+
+    @Override
+    public void put(WordKey word, List<String> result) {
+        segment.put(word, result);
+    }
+
+    @Override
+    public int size() {
+        return segment.size();
+    }
+
+    @Override
+    public void clear() {
+        segment.clear();
+    }
+
+    @Override
+    public int getGeneration() {
+        return segment.getGeneration();
+    }
+
+    @Override
+    public Map<String, List<String>> hottest(int count) {
+        return segment.hottest(count);
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return segment.getEstimatedBytes();
+    }
+
+    @Override
+    public AnalysisCacheStats getStats() {
+        return segment.getStats();
+    }
+}
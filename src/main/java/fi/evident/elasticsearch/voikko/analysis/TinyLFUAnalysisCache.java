@@ -0,0 +1,342 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent {@link AnalysisCache} that does not lock on reads.
+ * <p>
+ * Entries live in a {@link ConcurrentHashMap}, so lookups never block. Instead of reordering
+ * the LRU list on every hit, reads are recorded into small lossy per-thread-stripe buffers that
+ * are replayed against the LRU list and the {@link FrequencySketch} by whichever thread manages
+ * to grab the eviction lock. Losing some reads under heavy contention only makes the recency and
+ * frequency information slightly less accurate.
+ * <p>
+ * When the cache is full, a new entry is admitted only if it has been seen more often than the
+ * least recently used entry (TinyLFU). This keeps one-off words, which are common during bulk
+ * indexing, from flushing out the frequent ones.
+ */
+final class TinyLFUAnalysisCache implements AnalysisCache {
+
+    private static final int READ_BUFFER_STRIPES = 16;
+    private static final int READ_BUFFER_SIZE = 64;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = READ_BUFFER_SIZE / 2;
+
+    private final int maxSize;
+    private final ConcurrentHashMap<WordKey, Node> data;
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFER_STRIPES];
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AnalysisCacheStats stats = new AnalysisCacheStats();
+
+    // Following fields are guarded by evictionLock
+    private final FrequencySketch sketch;
+    private Node head; // least recently used
+    private Node tail; // most recently used
+    private int size = 0;
+    private volatile long estimatedBytes = 0;
+    private volatile int generation = 0;
+
+    private final long maxBytes;
+    private final AnalysisCacheBreaker breaker;
+    private final BaseformInterner interner;
+
+    TinyLFUAnalysisCache(int maxSize, long maxBytes, AnalysisCacheBreaker breaker) {
+        if (maxSize < 1) throw new IllegalArgumentException("invalid cache size: " + maxSize);
+
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.breaker = breaker;
+        this.interner = new BaseformInterner(maxSize, breaker);
+        this.data = new ConcurrentHashMap<>(maxSize + 1);
+        this.sketch = new FrequencySketch(maxSize);
+
+        for (int i = 0; i < readBuffers.length; i++)
+            readBuffers[i] = new ReadBuffer();
+    }
+
+    @Override
+    public List<String> get(WordKey word) {
+        Node node = data.get(word);
+        if (node == null) {
+            stats.recordMiss();
+            return null;
+        }
+
+        stats.recordHit();
+        recordRead(node);
+        return node.value;
+    }
+
+    @Override
+    public void put(WordKey word, List<String> result) {
+        List<String> compact = interner.intern(result);
+        WordKey key = word.copy();
+        Node node = new Node(key, compact, AnalysisCache.estimateBytes(key, compact, interner));
+        Node existing = data.putIfAbsent(key, node);
+        if (existing != null) {
+            existing.value = compact;
+            recordRead(existing);
+            return;
+        }
+
+        evictionLock.lock();
+        try {
+            if (data.get(key) != node)
+                return; // removed by clear() before we got the lock, linking it would leave a node missing from the map
+
+            drainReadBuffers();
+            sketch.increment(key);
+            linkLast(node);
+            size++;
+            addBytes(node.estimatedBytes);
+            evictIfNeeded(node);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            for (Node node = head; node != null; ) {
+                Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                node.linked = false;
+                node = next;
+            }
+            head = null;
+            tail = null;
+            size = 0;
+            addBytes(-estimatedBytes);
+            data.clear();
+            interner.clear();
+            generation++;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the entries with highest estimated frequency, most recently used first among equals.
+     */
+    @Override
+    public Map<String, List<String>> hottest(int count) {
+        List<Node> nodes = new ArrayList<>();
+        List<Integer> frequencies = new ArrayList<>();
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+            for (Node node = tail; node != null; node = node.prev) {
+                nodes.add(node);
+                frequencies.add(sketch.frequency(node.key));
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+
+        Integer[] order = new Integer[nodes.size()];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Integer.compare(frequencies.get(b), frequencies.get(a)));
+
+        Map<String, List<String>> hottest = new LinkedHashMap<>();
+        for (int i = 0; i < order.length && hottest.size() < count; i++) {
+            Node node = nodes.get(order[i]);
+            hottest.put(node.key.toString(), node.value);
+        }
+        return hottest;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimatedBytes + interner.getEstimatedBytes();
+    }
+
+    @Override
+    public AnalysisCacheStats getStats() {
+        return stats;
+    }
+
+    private void recordRead(Node node) {
+        ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFER_STRIPES - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadBuffer buffer : readBuffers)
+            buffer.drainTo(this);
+    }
+
+    private void onAccess(Node node) {
+        sketch.increment(node.key);
+
+        if (node.linked && node != tail) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    /**
+     * Evicts entries until the cache is within its bounds. The candidate, i.e. the entry just added,
+     * is evicted instead of the least recently used entry if it has not been seen more often.
+     */
+    private void evictIfNeeded(Node candidate) {
+        while (size > 0) {
+            boolean overLimits = size > maxSize || estimatedBytes + interner.getEstimatedBytes() > maxBytes;
+            if (!overLimits && !breaker.isOverLimit())
+                return;
+
+            Node victim = head;
+            if (candidate != null && victim != candidate && sketch.frequency(candidate.key) <= sketch.frequency(victim.key))
+                victim = candidate;
+
+            if (victim == candidate)
+                candidate = null;
+
+            unlink(victim);
+            size--;
+            addBytes(-victim.estimatedBytes);
+            data.remove(victim.key, victim);
+            stats.recordEviction();
+            if (!overLimits)
+                breaker.recordShed();
+        }
+    }
+
+    private void addBytes(long bytes) {
+        estimatedBytes += bytes;
+        breaker.addBytes(bytes);
+    }
+
+    private void linkLast(Node node) {
+        node.prev = tail;
+        node.next = null;
+        if (tail == null)
+            head = node;
+        else
+            tail.next = node;
+        tail = node;
+        node.linked = true;
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null)
+            head = node.next;
+        else
+            node.prev.next = node.next;
+
+        if (node.next == null)
+            tail = node.prev;
+        else
+            node.next.prev = node.prev;
+
+        node.prev = null;
+        node.next = null;
+        node.linked = false;
+    }
+
+    private static final class Node {
+        final WordKey key;
+        volatile List<String> value;
+
+        /** Estimated when the entry is added, replacing the value doesn't update it */
+        final long estimatedBytes;
+
+        // Following fields are guarded by evictionLock
+        Node prev;
+        Node next;
+        boolean linked;
+
+        Node(WordKey key, List<String> value, long estimatedBytes) {
+            this.key = key;
+            this.value = value;
+            this.estimatedBytes = estimatedBytes;
+        }
+    }
+
+    /**
+     * Bounded buffer with multiple producers and a single consumer holding the eviction lock.
+     * Producers drop the read instead of waiting when the buffer is full or contended.
+     */
+    private static final class ReadBuffer {
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+        private final AtomicLong writeCount = new AtomicLong();
+        private volatile long readCount = 0;
+
+        /**
+         * Records the read and returns true if the buffer should be drained.
+         */
+        boolean offer(Node node) {
+            long head = readCount;
+            long tail = writeCount.get();
+            long pending = tail - head;
+            if (pending >= READ_BUFFER_SIZE)
+                return true;
+
+            if (writeCount.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & (READ_BUFFER_SIZE - 1)), node);
+                return pending + 1 >= READ_BUFFER_DRAIN_THRESHOLD;
+            }
+
+            return false;
+        }
+
+        void drainTo(TinyLFUAnalysisCache cache) {
+            long head = readCount;
+            long tail = writeCount.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & (READ_BUFFER_SIZE - 1));
+                Node node = slots.get(index);
+                if (node == null)
+                    break; // producer has claimed the slot but not yet published to it
+
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readCount = head;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.util.ThreadInterruptedException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.ingest.AbstractProcessor;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.ingest.Processor;
+import org.puimula.libvoikko.Voikko;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Ingest processor that writes the base forms of the words of text fields into target fields, so
+ * that the morphological analysis can be done on ingest nodes and the data nodes can index the
+ * result with a cheap analyzer.
+ * <p>
+ * Text is split with the rules of {@code finnish} tokenizer and analyzed with the shared pool and
+ * cache of the node. When the processor has several fields, they are analyzed in parallel.
+ */
+public final class VoikkoBaseformsProcessor extends AbstractProcessor {
+
+    public static final String TYPE = "voikko_baseforms";
+
+    private final List<String> fields;
+    private final List<String> targetFields;
+    private final boolean ignoreMissing;
+    private final Analyzer analyzer;
+    private final Executor executor;
+
+    VoikkoBaseformsProcessor(String tag,
+                             List<String> fields,
+                             List<String> targetFields,
+                             boolean ignoreMissing,
+                             Analyzer analyzer,
+                             Executor executor) {
+        super(tag);
+        this.fields = fields;
+        this.targetFields = targetFields;
+        this.ignoreMissing = ignoreMissing;
+        this.analyzer = analyzer;
+        this.executor = executor;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public IngestDocument execute(IngestDocument document) {
+        List<Object> values = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            Object value = document.getFieldValue(field, Object.class, ignoreMissing);
+            if (value == null && !ignoreMissing)
+                throw new IllegalArgumentException("field [" + field + "] is null, cannot extract base forms");
+            values.add(value);
+        }
+
+        // Analyze the first field in this thread and the rest in the executor
+        List<FutureTask<Object>> tasks = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            Object value = values.get(i);
+            FutureTask<Object> task = new FutureTask<>(() -> value != null ? baseForms(field, value) : null);
+            tasks.add(task);
+            if (i > 0)
+                submit(task);
+        }
+
+        tasks.get(0).run();
+
+        for (int i = 0; i < fields.size(); i++) {
+            Object result = getResult(tasks.get(i));
+            if (result != null)
+                document.setFieldValue(targetFields.get(i), result);
+        }
+
+        return document;
+    }
+
+    /**
+     * Returns the base forms of a string value as a string, or of a list of strings as a list.
+     */
+    private Object baseForms(String field, Object value) throws IOException {
+        if (value instanceof String)
+            return baseForms(field, (String) value);
+
+        if (value instanceof List) {
+            List<String> result = new ArrayList<>();
+            for (Object item : (List<?>) value) {
+                if (!(item instanceof String))
+                    throw new IllegalArgumentException("field [" + field + "] of type [" + item.getClass().getName() + "] cannot be analyzed");
+                result.add(baseForms(field, (String) item));
+            }
+            return result;
+        }
+
+        throw new IllegalArgumentException("field [" + field + "] of type [" + value.getClass().getName() + "] cannot be analyzed");
+    }
+
+    /**
+     * Returns the base forms of the words of the text, separated by spaces.
+     */
+    private String baseForms(String field, String text) throws IOException {
+        StringBuilder result = new StringBuilder(text.length());
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                if (result.length() > 0)
+                    result.append(' ');
+                result.append(term);
+            }
+            stream.end();
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns an analyzer that emits the base forms of the words of a text.
+     * <p>
+     * Fields are analyzed in the threads of {@code voikko} pool, so the lookahead of a stream created
+     * in such a thread is done in that thread: waiting for tasks queued behind the current one in a
+     * fixed pool could block all of its threads for good. Streams are reused per thread, so the
+     * executor is chosen once for each thread.
+     */
+    static Analyzer newAnalyzer(VoikkoPool pool,
+                                AnalysisCache cache,
+                                boolean lowercase,
+                                Executor lookaheadExecutor,
+                                VoikkoFilterStats stats,
+                                VoikkoTokenFilterConfiguration cfg) {
+        return new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Executor executor = VoikkoResourceRegistry.isVoikkoThread() ? null : lookaheadExecutor;
+                Tokenizer tokenizer = lowercase ? new FinnishLowerCaseTokenizer() : new FinnishTokenizer();
+                return new TokenStreamComponents(tokenizer,
+                        new VoikkoTokenFilter(tokenizer, pool, cache, null, null, null, executor, stats, cfg));
+            }
+        };
+    }
+
+    private void submit(FutureTask<Object> task) {
+        if (executor == null) {
+            task.run();
+            return;
+        }
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    private static Object getResult(FutureTask<Object> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw new UncheckedIOException((IOException) cause);
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    public static final class Factory implements Processor.Factory {
+
+        private final VoikkoResourceRegistry registry;
+        private final Settings nodeSettings;
+
+        /** Resources acquired by the processors, kept for the lifetime of the node since processors are never closed */
+        private final Map<List<Object>, VoikkoResources> resources = new HashMap<>();
+
+        public Factory(VoikkoResourceRegistry registry, Settings nodeSettings) {
+            this.registry = registry;
+            this.nodeSettings = nodeSettings;
+        }
+
+        @Override
+        public VoikkoBaseformsProcessor create(Map<String, Processor.Factory> processorFactories, String tag, Map<String, Object> config) throws IOException {
+            String field = ConfigurationUtils.readOptionalStringProperty(TYPE, tag, config, "field");
+            List<String> fields = ConfigurationUtils.readOptionalList(TYPE, tag, config, "fields");
+            String targetField = ConfigurationUtils.readOptionalStringProperty(TYPE, tag, config, "target_field");
+            boolean ignoreMissing = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "ignore_missing", false);
+            String language = ConfigurationUtils.readStringProperty(TYPE, tag, config, "language", "fi_FI");
+            String dictionaryPath = ConfigurationUtils.readOptionalStringProperty(TYPE, tag, config, "dictionary_path");
+            List<String> libraryPath = ConfigurationUtils.readOptionalList(TYPE, tag, config, "library_path");
+            boolean lowercase = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "lowercase", true);
+
+            VoikkoTokenFilterConfiguration cfg = new VoikkoTokenFilterConfiguration();
+            cfg.analyzeAll = ConfigurationUtils.readBooleanProperty(TYPE, tag, config, "analyze_all", cfg.analyzeAll);
+            cfg.lookahead = ConfigurationUtils.readIntProperty(TYPE, tag, config, "lookahead", cfg.lookahead);
+
+            if ((field == null) == (fields == null))
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "field", "either [field] or [fields] must be set");
+            if (fields != null && targetField != null)
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "target_field", "can't be used together with [fields]");
+            if (fields != null && fields.isEmpty())
+                throw ConfigurationUtils.newConfigurationException(TYPE, tag, "fields", "must not be empty");
+
+            List<String> sourceFields = fields != null ? fields : singletonList(field);
+            List<String> targetFields = new ArrayList<>(sourceFields.size());
+            for (String sourceField : sourceFields)
+                targetFields.add(targetField != null ? targetField : sourceField + "_baseforms");
+
+            if (libraryPath == null)
+                libraryPath = emptyList();
+            for (String dir : libraryPath)
+                Voikko.addLibraryPath(dir);
+
+            VoikkoResources shared = acquire(language, dictionaryPath, libraryPath);
+            Executor executor = registry.getExecutor();
+            Executor lookaheadExecutor = cfg.lookahead > 0 ? executor : null;
+
+            Analyzer analyzer = newAnalyzer(shared.pool, shared.cache, lowercase, lookaheadExecutor, registry.getProcessorStats(), cfg);
+            return new VoikkoBaseformsProcessor(tag, sourceFields, targetFields, ignoreMissing, analyzer, executor);
+        }
+
+        private synchronized VoikkoResources acquire(String language, String dictionaryPath, List<String> libraryPath) throws IOException {
+            List<Object> key = Arrays.asList(language, dictionaryPath, libraryPath);
+            VoikkoResources acquired = resources.get(key);
+            if (acquired == null) {
+                acquired = registry.acquireShared(AnalysisBackend.LIBVOIKKO, language, dictionaryPath, libraryPath, CacheRole.INDEX, nodeSettings);
+                resources.put(key, acquired);
+                registry.addProcessorResources(acquired);
+            }
+            return acquired;
+        }
+    }
+}
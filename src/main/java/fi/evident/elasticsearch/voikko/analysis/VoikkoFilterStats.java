@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a single voikko filter, shared by all token streams created by its factory.
+ */
+final class VoikkoFilterStats {
+
+    /** Tokens passed to Voikko or the cache */
+    final LongAdder candidateTokens = new LongAdder();
+
+    /** Tokens rejected by word size or characters and passed through as they are */
+    final LongAdder skippedTokens = new LongAdder();
+
+    /** Tokens that were not analyzed because the negative filter remembered them as unknown */
+    final LongAdder unknownTokens = new LongAdder();
+
+    /** Lookups answered by the per-thread cache of the stream's thread */
+    final LongAdder localCacheHits = new LongAdder();
+
+    /** Lookups that missed the per-thread cache and were passed to the shared cache */
+    final LongAdder localCacheMisses = new LongAdder();
+
+    /** Duration of analyzing a single word with the backend */
+    final LatencyHistogram analyzeLatency = new LatencyHistogram();
+}
@@ -17,55 +17,119 @@
 
 package fi.evident.elasticsearch.voikko.analysis;
 
-import org.elasticsearch.SpecialPermission;
 import org.elasticsearch.common.SuppressForbidden;
-import org.puimula.libvoikko.Voikko;
 
-import java.security.AccessController;
-import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
+/**
+ * Pool of Voikko-instances, or more generally, of {@link MorphologicalAnalyzer}s.
+ * <p>
+ * Creating an instance loads the dictionaries, which is slow, so it is done without holding
+ * the pool's monitor: the slot is reserved under the monitor and the instance is created
+ * outside of it. Instances that have been idle longer than the idle timeout are terminated
+ * by {@link #evictIdle()} until only {@code minSize} instances remain.
+ * <p>
+ * A pool that is replaced by another one is {@link #retire() retired}: instead of failing the
+ * streams that still use it like a closed pool, it terminates its instances as they are released.
+ */
 @SuppressForbidden(reason = "Migrating old code")
 final class VoikkoPool {
 
-    private final String language;
-    private final String dictionaryPath;
+    private final Supplier<MorphologicalAnalyzer> factory;
+    private int minSize = 0;
     private int maxSize = 10;
+    private long idleTimeoutNanos = TimeUnit.MINUTES.toNanos(5);
     private int size = 0;
-    private final List<Voikko> freeInstances = new ArrayList<>();
+    private final Deque<IdleVoikko> freeInstances = new ArrayDeque<>();
     private boolean closed = false;
+    private boolean retired = false;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final Map<PoolExhaustedPolicy, LongAdder> exhaustedCounts = new EnumMap<>(PoolExhaustedPolicy.class);
+    private final LatencyHistogram acquireWait = new LatencyHistogram();
+    private int waiters = 0;
+
+    VoikkoPool(Supplier<MorphologicalAnalyzer> factory) {
+        this.factory = factory;
+
+        for (PoolExhaustedPolicy policy : PoolExhaustedPolicy.values())
+            exhaustedCounts.put(policy, new LongAdder());
+    }
 
-    VoikkoPool(String language, String dictionaryPath) {
-        this.language = language;
-        this.dictionaryPath = dictionaryPath;
+    MorphologicalAnalyzer takeVoikko() throws InterruptedException {
+        return take(-1);
     }
 
-    synchronized Voikko takeVoikko() throws InterruptedException {
-        while (true) {
-            if (closed)
-                throw new IllegalStateException("Can't acquire Voikko from closed pool.");
+    /**
+     * Like {@link #takeVoikko()}, but gives up after given timeout.
+     *
+     * @return Voikko-instance or {@code null} if none became available before timeout
+     */
+    MorphologicalAnalyzer takeVoikko(long timeout, TimeUnit unit) throws InterruptedException {
+        return take(Math.max(0, unit.toNanos(timeout)));
+    }
 
-            if (!freeInstances.isEmpty())
-                return freeInstances.remove(freeInstances.size() - 1);
+    private MorphologicalAnalyzer take(long timeoutNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            long remaining = timeoutNanos;
+            long deadline = start + remaining;
+            while (true) {
+                if (closed)
+                    throw new IllegalStateException("Can't acquire Voikko from closed pool.");
 
-            if (size < maxSize) {
-                Voikko voikko = createNewInstance();
-                size++;
-                return voikko;
-            }
+                if (!freeInstances.isEmpty()) {
+                    acquireWait.record(System.nanoTime() - start);
+                    return freeInstances.removeLast().voikko;
+                }
+
+                if (size < maxSize) {
+                    size++;
+                    acquireWait.record(System.nanoTime() - start);
+                    break;
+                }
+
+                if (timeoutNanos >= 0 && remaining <= 0) {
+                    acquireWait.record(System.nanoTime() - start);
+                    return null;
+                }
 
-            wait();
+                waiters++;
+                try {
+                    if (timeoutNanos < 0)
+                        wait();
+                    else
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } finally {
+                    waiters--;
+                }
+
+                remaining = deadline - System.nanoTime();
+            }
         }
+
+        return createReservedInstance();
     }
 
-    synchronized void release(Voikko voikko) {
+    synchronized void release(MorphologicalAnalyzer voikko) {
         if (voikko == null) throw new IllegalArgumentException("null voikko");
 
         if (closed) {
             voikko.terminate();
+        } else if (retired) {
+            voikko.terminate();
+            size--;
+            notify();
         } else {
-            freeInstances.add(voikko);
+            freeInstances.addLast(new IdleVoikko(voikko, System.nanoTime()));
             notify();
         }
     }
@@ -76,29 +140,153 @@ final class VoikkoPool {
 
         closed = true;
 
-        for (Voikko voikko : freeInstances)
-            voikko.terminate();
+        for (IdleVoikko idle : freeInstances)
+            idle.voikko.terminate();
 
         freeInstances.clear();
 
         notifyAll();
     }
 
+    /**
+     * Terminates the free instances and makes the pool terminate the rest as they are released.
+     * Streams still using the pool can borrow instances, but none are kept in the pool.
+     */
+    void retire() {
+        List<MorphologicalAnalyzer> terminated = new ArrayList<>();
+        synchronized (this) {
+            retired = true;
+            minSize = 0;
+            for (IdleVoikko idle : freeInstances)
+                terminated.add(idle.voikko);
+            size -= freeInstances.size();
+            freeInstances.clear();
+        }
+
+        for (MorphologicalAnalyzer voikko : terminated)
+            voikko.terminate();
+    }
+
+    /**
+     * Creates instances until the pool has at least {@code minSize} of them, then completes {@link #whenReady()}.
+     */
+    void prewarm() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (closed || retired || size >= minSize || size >= maxSize)
+                        return;
+                    size++;
+                }
+
+                release(createReservedInstance());
+            }
+        } finally {
+            ready.complete(null);
+        }
+    }
+
+    /**
+     * Returns a future completed when the pool has been prewarmed, or prewarming failed.
+     */
+    CompletableFuture<Void> whenReady() {
+        return ready;
+    }
+
+    /**
+     * Terminates instances that have been idle for longer than the idle timeout,
+     * as long as the pool stays at or above {@code minSize}.
+     */
+    void evictIdle() {
+        List<MorphologicalAnalyzer> evicted = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            while (size > minSize && !freeInstances.isEmpty() && now - freeInstances.peekFirst().releasedAt > idleTimeoutNanos) {
+                evicted.add(freeInstances.removeFirst().voikko);
+                size--;
+            }
+        }
+
+        for (MorphologicalAnalyzer voikko : evicted)
+            voikko.terminate();
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
     void setMaxSize(int maxSize) {
         this.maxSize = maxSize;
     }
 
-    private Voikko createNewInstance() {
-        SecurityManager sm = System.getSecurityManager();
-        if (sm != null)
-            sm.checkPermission(new SpecialPermission());
+    void setIdleTimeout(long timeout, TimeUnit unit) {
+        this.idleTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Records that acquiring an instance timed out and given policy was applied.
+     */
+    void recordExhausted(PoolExhaustedPolicy policy) {
+        exhaustedCounts.get(policy).increment();
+    }
+
+    long getExhaustedCount(PoolExhaustedPolicy policy) {
+        return exhaustedCounts.get(policy).sum();
+    }
+
+    /**
+     * Returns the number of instances, both free and borrowed.
+     */
+    synchronized int getSize() {
+        return size;
+    }
+
+    synchronized int getFreeCount() {
+        return freeInstances.size();
+    }
+
+    synchronized int getWaiterCount() {
+        return waiters;
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Time spent in {@link #takeVoikko()}, not including creating new instances.
+     */
+    LatencyHistogram getAcquireWait() {
+        return acquireWait;
+    }
 
-        return AccessController.doPrivileged((PrivilegedAction<Voikko>) () -> {
-            try {
-                return new Voikko(language, dictionaryPath);
-            } catch (UnsatisfiedLinkError e) {
-                throw new VoikkoNativeLibraryNotFoundException(e);
+    /**
+     * Creates an instance for a slot that the caller has already reserved by incrementing size.
+     */
+    private MorphologicalAnalyzer createReservedInstance() {
+        try {
+            return factory.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                size--;
+                notify();
             }
-        });
+            throw e;
+        }
+    }
+
+
+    private static final class IdleVoikko {
+        final MorphologicalAnalyzer voikko;
+        final long releasedAt;
+
+        IdleVoikko(MorphologicalAnalyzer voikko, long releasedAt) {
+            this.voikko = voikko;
+            this.releasedAt = releasedAt;
+        }
     }
 }
@@ -0,0 +1,647 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.message.ParameterizedMessage;
+import org.elasticsearch.ResourceNotFoundException;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.threadpool.Scheduler;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Node-level owner of Voikko resources.
+ * <p>
+ * Filters configured with {@code shared: true} get their pool and cache from here instead of
+ * creating their own, so that all indices using the same language, dictionary and library share
+ * a single warm cache and a single set of native Voikko-instances. Shared resources are reference
+ * counted and released when the last factory using them is closed. Filters used for queries get
+ * a separate segment of the shared cache, so that indexing doesn't evict their results.
+ * <p>
+ * The registry also keeps track of the factories created for each index, so that they can be
+ * closed when the index is removed from the node, and maintains all pools: new pools are
+ * prewarmed in the background and idle instances are periodically evicted. Only the factories
+ * of indices that have been {@link #indexCreated(Index) created} on this node are registered:
+ * Elasticsearch also builds analyzers that it uses once and drops without closing them, e.g. for
+ * inline definitions of the analyze API and for checking the compatibility of mappings. If the
+ * index service is not created after all, the index is released by the periodic maintenance.
+ */
+public final class VoikkoResourceRegistry implements Closeable {
+
+    public static final Setting<Integer> SHARED_ANALYSIS_CACHE_SIZE =
+            Setting.intSetting("voikko.shared.analysis_cache_size", 16384, 1, Property.NodeScope);
+
+    public static final Setting<AnalysisCacheType> SHARED_ANALYSIS_CACHE_TYPE =
+            new Setting<>("voikko.shared.analysis_cache_type", AnalysisCacheType.TINYLFU.toString(), AnalysisCacheType::fromSetting, Property.NodeScope);
+
+    public static final Setting<ByteSizeValue> SHARED_ANALYSIS_CACHE_MAX_BYTES =
+            Setting.memorySizeSetting("voikko.shared.analysis_cache_max_bytes", "-1", Property.NodeScope);
+
+    /** Name of the thread pool used for analyzing words in parallel */
+    public static final String THREAD_POOL_NAME = "voikko";
+
+    /** Value of pool max size meaning that the size is derived from the sizes of write and search thread pools */
+    static final int AUTO_POOL_SIZE = -1;
+
+    public static final Setting<Integer> SHARED_POOL_MAX_SIZE =
+            new Setting<>("voikko.shared.pool_max_size", "10", s -> parsePoolMaxSize(s, "voikko.shared.pool_max_size"), Property.NodeScope);
+
+    public static final Setting<Integer> SHARED_POOL_MIN_SIZE =
+            Setting.intSetting("voikko.shared.pool_min_size", 0, 0, Property.NodeScope);
+
+    public static final Setting<TimeValue> SHARED_POOL_IDLE_TIMEOUT =
+            Setting.positiveTimeSetting("voikko.shared.pool_idle_timeout", TimeValue.timeValueMinutes(5), Property.NodeScope);
+
+    public static final Setting<Integer> SHARED_SEARCH_CACHE_SIZE =
+            Setting.intSetting("voikko.shared.search_cache_size", 4096, 1, Property.NodeScope);
+
+    public static final Setting<Integer> SHARED_LOCAL_CACHE_SIZE =
+            Setting.intSetting("voikko.shared.local_cache_size", 256, 0, Property.NodeScope);
+
+    public static final Setting<Boolean> SHARED_CACHE_SNAPSHOT =
+            Setting.boolSetting("voikko.shared.cache_snapshot", false, Property.NodeScope);
+
+    public static final Setting<Integer> SHARED_CACHE_SNAPSHOT_SIZE =
+            Setting.intSetting("voikko.shared.cache_snapshot_size", 16384, 1, Property.NodeScope);
+
+    public static final Setting<TimeValue> CACHE_SNAPSHOT_INTERVAL =
+            Setting.positiveTimeSetting("voikko.cache_snapshot_interval", TimeValue.timeValueMinutes(15), Property.NodeScope);
+
+    public static final Setting<ByteSizeValue> BREAKER_LIMIT =
+            Setting.memorySizeSetting("voikko.breaker.limit", "10%", Property.NodeScope);
+
+    public static final List<Setting<?>> SETTINGS = unmodifiableList(Arrays.asList(
+            SHARED_ANALYSIS_CACHE_SIZE,
+            SHARED_ANALYSIS_CACHE_TYPE,
+            SHARED_ANALYSIS_CACHE_MAX_BYTES,
+            SHARED_SEARCH_CACHE_SIZE,
+            SHARED_LOCAL_CACHE_SIZE,
+            SHARED_POOL_MAX_SIZE,
+            SHARED_POOL_MIN_SIZE,
+            SHARED_POOL_IDLE_TIMEOUT,
+            SHARED_CACHE_SNAPSHOT,
+            SHARED_CACHE_SNAPSHOT_SIZE,
+            CACHE_SNAPSHOT_INTERVAL,
+            BREAKER_LIMIT));
+
+    private static final Logger logger = LogManager.getLogger(VoikkoResourceRegistry.class);
+
+    private static final TimeValue MAINTENANCE_INTERVAL = TimeValue.timeValueSeconds(30);
+
+    private final Map<ResourceKey, VoikkoResources> sharedResources = new HashMap<>();
+    private final Map<Index, List<VoikkoTokenFilterFactory>> factoriesByIndex = new HashMap<>();
+    private final Set<Index> createdIndices = new HashSet<>();
+    private final Set<Index> pendingIndices = new HashSet<>();
+    private Set<Index> stalePendingIndices = new HashSet<>();
+    private final Set<VoikkoPool> maintainedPools = ConcurrentHashMap.newKeySet();
+    private final List<VoikkoResources> processorResources = new ArrayList<>();
+    private final VoikkoFilterStats processorStats = new VoikkoFilterStats();
+    private final Set<AnalysisCacheSnapshot> snapshots = ConcurrentHashMap.newKeySet();
+    private final AnalysisCacheBreaker breaker = new AnalysisCacheBreaker(Long.MAX_VALUE);
+    private ThreadPool threadPool;
+    private ClusterService clusterService;
+    private Path snapshotDirectory;
+    private Scheduler.Cancellable maintenanceTask;
+    private Scheduler.Cancellable snapshotTask;
+    private boolean closed = false;
+
+    /**
+     * Starts background maintenance of pools and cache snapshots. Until this is called, pools are
+     * prewarmed synchronously, idle instances are not evicted, caches are not persisted and the
+     * memory of caches is not limited on node level.
+     *
+     * @param snapshotDirectory directory in the data path of the node for cache snapshots
+     */
+    public synchronized void start(ThreadPool threadPool, ClusterService clusterService, Path snapshotDirectory, Settings nodeSettings) {
+        this.threadPool = threadPool;
+        this.clusterService = clusterService;
+        this.snapshotDirectory = snapshotDirectory;
+        this.maintenanceTask = threadPool.scheduleWithFixedDelay(this::maintain, MAINTENANCE_INTERVAL, ThreadPool.Names.GENERIC);
+        this.snapshotTask = threadPool.scheduleWithFixedDelay(this::saveSnapshots, CACHE_SNAPSHOT_INTERVAL.get(nodeSettings), ThreadPool.Names.GENERIC);
+        breaker.setLimit(maxBytes(BREAKER_LIMIT.get(nodeSettings)));
+    }
+
+    /**
+     * Creates a new pool that will be prewarmed and maintained by this registry until it is closed.
+     */
+    VoikkoPool createPool(Supplier<MorphologicalAnalyzer> factory, int minSize, int maxSize, TimeValue idleTimeout, Settings nodeSettings) {
+        VoikkoPool pool = new VoikkoPool(factory);
+        pool.setMinSize(minSize);
+        pool.setMaxSize(maxSize == AUTO_POOL_SIZE ? autoPoolSize(nodeSettings) : maxSize);
+        pool.setIdleTimeout(idleTimeout.nanos(), TimeUnit.NANOSECONDS);
+
+        maintainedPools.add(pool);
+
+        ThreadPool threadPool = getThreadPool();
+        if (minSize > 0 && threadPool != null)
+            threadPool.generic().execute(() -> prewarm(pool));
+        else
+            prewarm(pool); // returns at once if there is nothing to create
+
+        return pool;
+    }
+
+    /**
+     * Retires a pool created with {@link #createPool}. A retired pool keeps no idle instances, so it
+     * is no longer maintained.
+     */
+    void retirePool(VoikkoPool pool) {
+        pool.retire();
+        maintainedPools.remove(pool);
+    }
+
+    synchronized VoikkoResources acquireShared(AnalysisBackend backend, String language, String dictionaryPath, List<String> libraryPath, CacheRole cacheRole, Settings nodeSettings) throws IOException {
+        if (closed)
+            throw new IllegalStateException("Can't acquire Voikko resources from closed registry.");
+
+        String dictionaryVersion = AnalysisCacheSnapshot.dictionaryVersion(backend, language, dictionaryPath);
+        ResourceKey key = new ResourceKey(language, dictionaryPath, libraryPath, dictionaryVersion);
+        VoikkoResources resources = sharedResources.get(key);
+        if (resources == null) {
+            AnalysisCacheType cacheType = SHARED_ANALYSIS_CACHE_TYPE.get(nodeSettings);
+            VoikkoPool pool = createPool(backend.factory(language, dictionaryPath, null),
+                    SHARED_POOL_MIN_SIZE.get(nodeSettings),
+                    SHARED_POOL_MAX_SIZE.get(nodeSettings),
+                    SHARED_POOL_IDLE_TIMEOUT.get(nodeSettings),
+                    nodeSettings);
+            resources = new VoikkoResources(pool, cacheType.create(SHARED_ANALYSIS_CACHE_SIZE.get(nodeSettings),
+                    maxBytes(SHARED_ANALYSIS_CACHE_MAX_BYTES.get(nodeSettings)), breaker));
+            resources.localCache = newLocalCache(resources.cache, nodeSettings);
+
+            if (SHARED_CACHE_SNAPSHOT.get(nodeSettings))
+                resources.snapshot = createSnapshot("shared-" + Integer.toHexString(Objects.hash(backend.toString(), language, dictionaryPath, libraryPath)),
+                        dictionaryVersion,
+                        resources.cache,
+                        SHARED_CACHE_SNAPSHOT_SIZE.get(nodeSettings));
+
+            sharedResources.put(key, resources);
+        }
+
+        if (cacheRole == CacheRole.SEARCH && resources.searchCache == null) {
+            AnalysisCache segment = SHARED_ANALYSIS_CACHE_TYPE.get(nodeSettings).create(SHARED_SEARCH_CACHE_SIZE.get(nodeSettings), Long.MAX_VALUE, breaker);
+            resources.searchCache = new SearchAnalysisCache(segment, resources.cache);
+            resources.searchLocalCache = newLocalCache(resources.searchCache, nodeSettings);
+        }
+
+        resources.references++;
+        return resources;
+    }
+
+    /**
+     * Releases shared resources acquired with {@link #acquireShared}.
+     *
+     * @param drain true if the resources are replaced by a new generation and streams may still use them,
+     *              in which case the pool is retired instead of closed and the snapshot is left to the new generation
+     */
+    synchronized void releaseShared(VoikkoResources resources, boolean drain) {
+        if (--resources.references == 0) {
+            sharedResources.values().remove(resources);
+            if (drain) {
+                retirePool(resources.pool);
+                if (resources.snapshot != null)
+                    stopSnapshot(resources.snapshot);
+            } else {
+                resources.pool.close();
+                if (resources.snapshot != null)
+                    releaseSnapshot(resources.snapshot, true);
+            }
+            resources.cache.clear();
+            if (resources.searchCache != null)
+                resources.searchCache.clear();
+
+            for (LocalAnalysisCache localCache : Arrays.asList(resources.localCache, resources.searchLocalCache)) {
+                if (localCache == null)
+                    continue;
+                if (drain)
+                    localCache.invalidate(); // tables may still be in use by running streams, so they are not closed
+                else
+                    localCache.close();
+            }
+        }
+    }
+
+    /**
+     * Creates the per-thread caches in front of a shared cache. They are shared by all the filters
+     * using the cache, so that a thread holds a single table per shared cache however many indices
+     * use it.
+     */
+    private static LocalAnalysisCache newLocalCache(AnalysisCache cache, Settings nodeSettings) {
+        int size = SHARED_LOCAL_CACHE_SIZE.get(nodeSettings);
+        return size > 0 ? new LocalAnalysisCache(size, cache) : null;
+    }
+
+    /**
+     * Starts persisting given cache: the previous snapshot is loaded into the cache in the background,
+     * and the cache is saved periodically until the snapshot is released.
+     *
+     * @param name name of the snapshot file, unique within the node
+     * @return the snapshot or {@code null} if the registry has not been started
+     */
+    AnalysisCacheSnapshot createSnapshot(String name, String dictionaryVersion, AnalysisCache cache, int maxEntries) {
+        ThreadPool threadPool;
+        Path directory;
+        synchronized (this) {
+            threadPool = this.threadPool;
+            directory = this.snapshotDirectory;
+        }
+
+        if (threadPool == null || directory == null)
+            return null;
+
+        AnalysisCacheSnapshot snapshot = new AnalysisCacheSnapshot(directory.resolve(name + ".snapshot"), dictionaryVersion, cache, maxEntries);
+        snapshots.add(snapshot);
+        threadPool.generic().execute(() -> loadSnapshot(snapshot));
+        return snapshot;
+    }
+
+    /**
+     * Stops persisting the cache of given snapshot, saving it one last time or deleting it.
+     */
+    void releaseSnapshot(AnalysisCacheSnapshot snapshot, boolean save) {
+        stopSnapshot(snapshot);
+        try {
+            if (save)
+                snapshot.save();
+            else
+                snapshot.delete();
+        } catch (IOException e) {
+            logger.warn(() -> new ParameterizedMessage("failed to update Voikko cache snapshot [{}]", snapshot.getFile()), e);
+        }
+    }
+
+    /**
+     * Stops saving the cache of given snapshot periodically, leaving the file as it is.
+     */
+    void stopSnapshot(AnalysisCacheSnapshot snapshot) {
+        snapshots.remove(snapshot);
+    }
+
+    /**
+     * Marks given index as created on this node, so that the factories built for it will be registered.
+     * Called when the index service is being created, before its analyzers are built. The index stays
+     * pending until {@link #indexServiceCreated(Index)} is called.
+     */
+    public synchronized void indexCreated(Index index) {
+        if (createdIndices.add(index) || pendingIndices.contains(index)) {
+            pendingIndices.add(index);
+            stalePendingIndices.remove(index);
+        }
+    }
+
+    /**
+     * Marks the index service of given index as created, so that the index is kept until it is
+     * {@link #indexRemoved removed}. Elasticsearch doesn't notify when creating the index service
+     * fails, so indices that stay pending are released by {@link #releaseAbandonedIndices()}.
+     */
+    public synchronized void indexServiceCreated(Index index) {
+        pendingIndices.remove(index);
+        stalePendingIndices.remove(index);
+    }
+
+    /**
+     * Returns true if a factory with given name built for given index should be registered, i.e. the
+     * index has been created on this node and the factory is not a duplicate of a registered one.
+     * Updateable factories replace the registered ones when search analyzers are reloaded. Other
+     * factories are built for a single use and never closed, so they must not hold resources that
+     * garbage collection would not release.
+     */
+    synchronized boolean shouldRegister(Index index, String name, boolean updateable) {
+        return createdIndices.contains(index) && (updateable || getFactory(index, name) == null);
+    }
+
+    /**
+     * Registers a factory created for given index. An updateable factory replaces the previous factory
+     * with the same name, which happens when search analyzers are reloaded.
+     *
+     * @return the replaced factory or {@code null} if there was none
+     */
+    synchronized VoikkoTokenFilterFactory registerFactory(Index index, VoikkoTokenFilterFactory factory) {
+        List<VoikkoTokenFilterFactory> factories = factoriesByIndex.computeIfAbsent(index, i -> new ArrayList<>());
+        if (factory.isUpdateable()) {
+            for (int i = 0; i < factories.size(); i++) {
+                VoikkoTokenFilterFactory previous = factories.get(i);
+                if (previous.name().equals(factory.name())) {
+                    factories.set(i, factory);
+                    return previous;
+                }
+            }
+        }
+        factories.add(factory);
+        return null;
+    }
+
+    /**
+     * Returns the factory with given name in given index, or {@code null} if there is none.
+     */
+    synchronized VoikkoTokenFilterFactory getFactory(Index index, String name) {
+        for (VoikkoTokenFilterFactory factory : factoriesByIndex.getOrDefault(index, emptyList()))
+            if (factory.name().equals(name))
+                return factory;
+        return null;
+    }
+
+    /**
+     * Returns the factories of all indices on this node.
+     */
+    synchronized List<VoikkoTokenFilterFactory> getFactories() {
+        List<VoikkoTokenFilterFactory> factories = new ArrayList<>();
+        for (List<VoikkoTokenFilterFactory> indexFactories : factoriesByIndex.values())
+            factories.addAll(indexFactories);
+        return factories;
+    }
+
+    /**
+     * Records shared resources acquired by the ingest processors, so that they are reported in the stats.
+     * Processors are never closed, so the resources are kept for the lifetime of the node.
+     */
+    synchronized void addProcessorResources(VoikkoResources resources) {
+        processorResources.add(resources);
+    }
+
+    synchronized List<VoikkoResources> getProcessorResources() {
+        return new ArrayList<>(processorResources);
+    }
+
+    /**
+     * Returns the statistics shared by all ingest processors of this node.
+     */
+    VoikkoFilterStats getProcessorStats() {
+        return processorStats;
+    }
+
+    /**
+     * Returns the factory of the voikko filter with given name in the current index with given name.
+     * The name is resolved from the cluster state, so that the factories of a deleted index with the
+     * same name are never returned.
+     *
+     * @throws ResourceNotFoundException if there is no such filter on this node
+     */
+    VoikkoTokenFilterFactory findFactory(String indexName, String filterName) {
+        ClusterService clusterService = getClusterService();
+        IndexMetaData metaData = clusterService != null ? clusterService.state().metaData().index(indexName) : null;
+        VoikkoTokenFilterFactory factory = metaData != null ? getFactory(metaData.getIndex(), filterName) : null;
+        if (factory != null)
+            return factory;
+
+        throw new ResourceNotFoundException("no voikko filter [{}] in index [{}] on this node", filterName, indexName);
+    }
+
+    /**
+     * Closes all factories created for given index. Called when the index is removed from the node.
+     *
+     * @param deleted true if the index was deleted, in which case cache snapshots of its filters are deleted as well
+     */
+    public void indexRemoved(Index index, boolean deleted) throws IOException {
+        List<VoikkoTokenFilterFactory> factories;
+        synchronized (this) {
+            factories = factoriesByIndex.remove(index);
+            createdIndices.remove(index);
+            pendingIndices.remove(index);
+            stalePendingIndices.remove(index);
+        }
+
+        if (factories != null) {
+            for (VoikkoTokenFilterFactory factory : factories) {
+                if (deleted)
+                    factory.discardSnapshot();
+                factory.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+
+        if (maintenanceTask != null)
+            maintenanceTask.cancel();
+        if (snapshotTask != null)
+            snapshotTask.cancel();
+
+        saveSnapshots();
+
+        for (VoikkoResources resources : sharedResources.values()) {
+            resources.pool.close();
+            resources.cache.clear();
+            if (resources.searchCache != null)
+                resources.searchCache.clear();
+        }
+
+        sharedResources.clear();
+        factoriesByIndex.clear();
+        createdIndices.clear();
+        processorResources.clear();
+        pendingIndices.clear();
+        stalePendingIndices.clear();
+        maintainedPools.clear();
+        snapshots.clear();
+    }
+
+    /**
+     * Returns the node-level breaker that all caches created for this node are charged to.
+     */
+    AnalysisCacheBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Returns the byte limit for a cache, negative size meaning unlimited.
+     */
+    static long maxBytes(ByteSizeValue size) {
+        return size.getBytes() < 0 ? Long.MAX_VALUE : size.getBytes();
+    }
+
+    /**
+     * Parses pool max size, which is either a positive number or {@code auto}.
+     */
+    static int parsePoolMaxSize(String value, String key) {
+        if ("auto".equals(value))
+            return AUTO_POOL_SIZE;
+
+        return Setting.parseInt(value, 1, key);
+    }
+
+    /**
+     * Size of pool large enough that no write or search thread will ever have to wait for an instance.
+     */
+    private int autoPoolSize(Settings nodeSettings) {
+        ThreadPool threadPool = getThreadPool();
+        if (threadPool != null)
+            return threadPool.info(ThreadPool.Names.WRITE).getMax() + threadPool.info(ThreadPool.Names.SEARCH).getMax();
+
+        int processors = EsExecutors.numberOfProcessors(nodeSettings);
+        return processors + ThreadPool.searchThreadPoolSize(processors);
+    }
+
+    /**
+     * Returns the executor for analyzing words in parallel or {@code null} if the registry has not been started.
+     */
+    Executor getExecutor() {
+        ThreadPool threadPool = getThreadPool();
+        return threadPool != null ? threadPool.executor(THREAD_POOL_NAME) : null;
+    }
+
+    /**
+     * Returns true if the current thread belongs to the executor returned by {@link #getExecutor()}.
+     */
+    static boolean isVoikkoThread() {
+        // Elasticsearch names the threads of its pools like "elasticsearch[node][voikko][T#1]"
+        return Thread.currentThread().getName().contains("[" + THREAD_POOL_NAME + "]");
+    }
+
+    /**
+     * Returns the executor for management tasks that may block, such as warming caches.
+     */
+    Executor getGenericExecutor() {
+        ThreadPool threadPool = getThreadPool();
+        if (threadPool == null)
+            throw new IllegalStateException("registry has not been started");
+        return threadPool.generic();
+    }
+
+    private synchronized ClusterService getClusterService() {
+        return clusterService;
+    }
+
+    private synchronized ThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    private void maintain() {
+        releaseAbandonedIndices();
+        evictIdleInstances();
+    }
+
+    /**
+     * Releases the indices whose index service was not created since the previous call, e.g. because
+     * creating it failed or because it was only built to verify the metadata of the index. Indices
+     * that were pending only since the previous call get another maintenance interval to finish.
+     */
+    void releaseAbandonedIndices() {
+        List<Index> abandoned;
+        synchronized (this) {
+            abandoned = new ArrayList<>(stalePendingIndices);
+            stalePendingIndices = new HashSet<>(pendingIndices);
+            stalePendingIndices.removeAll(abandoned);
+        }
+
+        for (Index index : abandoned) {
+            try {
+                indexRemoved(index, false);
+            } catch (IOException e) {
+                logger.warn(() -> new ParameterizedMessage("failed to release Voikko resources of index [{}]", index), e);
+            }
+        }
+    }
+
+    private void evictIdleInstances() {
+        maintainedPools.removeIf(VoikkoPool::isClosed);
+
+        for (VoikkoPool pool : maintainedPools)
+            pool.evictIdle();
+    }
+
+    private void saveSnapshots() {
+        for (AnalysisCacheSnapshot snapshot : snapshots) {
+            try {
+                snapshot.save();
+            } catch (IOException e) {
+                logger.warn(() -> new ParameterizedMessage("failed to save Voikko cache snapshot [{}]", snapshot.getFile()), e);
+            }
+        }
+    }
+
+    private static void loadSnapshot(AnalysisCacheSnapshot snapshot) {
+        try {
+            int loaded = snapshot.load();
+            if (loaded >= 0)
+                logger.debug("loaded {} entries from Voikko cache snapshot [{}]", loaded, snapshot.getFile());
+        } catch (IOException | RuntimeException e) {
+            logger.warn(() -> new ParameterizedMessage("ignoring unreadable Voikko cache snapshot [{}]", snapshot.getFile()), e);
+        }
+    }
+
+    private static void prewarm(VoikkoPool pool) {
+        try {
+            pool.prewarm();
+        } catch (RuntimeException e) {
+            logger.warn("failed to prewarm Voikko pool", e);
+        }
+    }
+
+    private static final class ResourceKey {
+        private final String language;
+        private final String dictionaryPath;
+        private final List<String> libraryPath;
+
+        /** Changes when the dictionary files change, so that a reloaded filter gets a new generation of resources */
+        private final String dictionaryVersion;
+
+        ResourceKey(String language, String dictionaryPath, List<String> libraryPath, String dictionaryVersion) {
+            this.language = language;
+            this.dictionaryPath = dictionaryPath;
+            this.libraryPath = libraryPath;
+            this.dictionaryVersion = dictionaryVersion;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (obj == null || getClass() != obj.getClass()) return false;
+
+            ResourceKey key = (ResourceKey) obj;
+
+            return language.equals(key.language)
+                && Objects.equals(dictionaryPath, key.dictionaryPath)
+                && libraryPath.equals(key.libraryPath)
+                && dictionaryVersion.equals(key.dictionaryVersion);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(language, dictionaryPath, libraryPath, dictionaryVersion);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+/**
+ * Pool of Voikko-instances and the cache of their analysis results that are used together.
+ */
+final class VoikkoResources {
+
+    final VoikkoPool pool;
+    final AnalysisCache cache;
+
+    /** Number of factories using these resources, guarded by the owning {@link VoikkoResourceRegistry} */
+    int references = 0;
+
+    /** Snapshot of the cache or {@code null} if the cache is not persisted */
+    AnalysisCacheSnapshot snapshot;
+
+    /** Cache for filters with {@link CacheRole#SEARCH} or {@code null} if none has used these resources */
+    SearchAnalysisCache searchCache;
+
+    /** Per-thread caches in front of {@link #cache}, or {@code null} if they are disabled or the resources are not shared */
+    LocalAnalysisCache localCache;
+
+    /** Per-thread caches in front of {@link #searchCache}, or {@code null} if there are none */
+    LocalAnalysisCache searchLocalCache;
+
+    VoikkoResources(VoikkoPool pool, AnalysisCache cache) {
+        this.pool = pool;
+        this.cache = cache;
+    }
+}
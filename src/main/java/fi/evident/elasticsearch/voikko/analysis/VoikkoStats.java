@@ -0,0 +1,207 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.common.xcontent.ToXContentObject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.singleton;
+
+/**
+ * Statistics of the voikko filters and ingest processors of this node, reported by {@code GET _voikko/stats}.
+ * <p>
+ * Besides the stats of each filter and of the processors, the totals of the node are reported. Shared
+ * pools and caches are counted only once in the totals, and the state of the node-level cache memory
+ * breaker is included with them.
+ */
+final class VoikkoStats implements ToXContentObject {
+
+    private final List<VoikkoTokenFilterFactory> factories;
+    private final List<VoikkoResources> processorResources;
+    private final VoikkoFilterStats processorStats;
+    private final AnalysisCacheBreaker breaker;
+
+    VoikkoStats(List<VoikkoTokenFilterFactory> factories,
+                List<VoikkoResources> processorResources,
+                VoikkoFilterStats processorStats,
+                AnalysisCacheBreaker breaker) {
+        this.factories = factories;
+        this.processorResources = processorResources;
+        this.processorStats = processorStats;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject();
+
+        Set<AnalysisCache> caches = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<VoikkoPool> pools = Collections.newSetFromMap(new IdentityHashMap<>());
+        VoikkoFilterStats total = new VoikkoFilterStats();
+        Map<String, List<VoikkoTokenFilterFactory>> factoriesByIndex = new LinkedHashMap<>();
+
+        for (VoikkoTokenFilterFactory factory : factories) {
+            caches.add(factory.getResources().cache);
+            caches.add(factory.getCache());
+            pools.add(factory.getResources().pool);
+            addTo(factory.getStats(), total);
+            factoriesByIndex.computeIfAbsent(factory.index().getName(), i -> new ArrayList<>()).add(factory);
+        }
+
+        Set<AnalysisCache> processorCaches = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<VoikkoPool> processorPools = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (VoikkoResources resources : processorResources) {
+            processorCaches.add(resources.cache);
+            processorPools.add(resources.pool);
+        }
+        caches.addAll(processorCaches);
+        pools.addAll(processorPools);
+        addTo(processorStats, total);
+
+        builder.startObject("node");
+        cacheToXContent(builder, caches);
+        poolToXContent(builder, pools);
+        filterStatsToXContent(builder, total);
+        breakerToXContent(builder, breaker);
+        builder.endObject();
+
+        builder.startObject("indices");
+        for (Map.Entry<String, List<VoikkoTokenFilterFactory>> entry : factoriesByIndex.entrySet()) {
+            builder.startObject(entry.getKey());
+            builder.startObject("filters");
+            for (VoikkoTokenFilterFactory factory : entry.getValue()) {
+                builder.startObject(factory.name());
+                builder.field("shared", factory.isShared());
+                cacheToXContent(builder, singleton(factory.getCache()));
+                poolToXContent(builder, singleton(factory.getResources().pool));
+                filterStatsToXContent(builder, factory.getStats());
+                builder.endObject();
+            }
+            builder.endObject();
+            builder.endObject();
+        }
+        builder.endObject();
+
+        builder.startObject("ingest");
+        cacheToXContent(builder, processorCaches);
+        poolToXContent(builder, processorPools);
+        filterStatsToXContent(builder, processorStats);
+        builder.endObject();
+
+        return builder.endObject();
+    }
+
+    private static void cacheToXContent(XContentBuilder builder, Collection<AnalysisCache> caches) throws IOException {
+        long size = 0;
+        long estimatedBytes = 0;
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        for (AnalysisCache cache : caches) {
+            AnalysisCacheStats stats = cache.getStats();
+            size += cache.size();
+            estimatedBytes += cache.getEstimatedBytes();
+            hits += stats.getHits();
+            misses += stats.getMisses();
+            evictions += stats.getEvictions();
+        }
+
+        builder.startObject("cache");
+        builder.field("size", size);
+        builder.field("estimated_size_in_bytes", estimatedBytes);
+        builder.field("hits", hits);
+        builder.field("misses", misses);
+        builder.field("evictions", evictions);
+        builder.endObject();
+    }
+
+    private static void poolToXContent(XContentBuilder builder, Collection<VoikkoPool> pools) throws IOException {
+        long size = 0;
+        long maxSize = 0;
+        long free = 0;
+        long waiters = 0;
+        Map<PoolExhaustedPolicy, Long> exhausted = new LinkedHashMap<>();
+        LatencyHistogram acquireWait = new LatencyHistogram();
+        for (VoikkoPool pool : pools) {
+            size += pool.getSize();
+            maxSize += pool.getMaxSize();
+            free += pool.getFreeCount();
+            waiters += pool.getWaiterCount();
+            pool.getAcquireWait().addTo(acquireWait);
+            for (PoolExhaustedPolicy policy : PoolExhaustedPolicy.values())
+                exhausted.merge(policy, pool.getExhaustedCount(policy), Long::sum);
+        }
+
+        builder.startObject("pool");
+        builder.field("size", size);
+        builder.field("max_size", maxSize);
+        builder.field("free", free);
+        builder.field("waiters", waiters);
+        builder.startObject("acquire_wait");
+        acquireWait.toXContent(builder, EMPTY_PARAMS);
+        builder.endObject();
+        builder.startObject("exhausted");
+        for (Map.Entry<PoolExhaustedPolicy, Long> entry : exhausted.entrySet())
+            builder.field(entry.getKey().toString(), entry.getValue());
+        builder.endObject();
+        builder.endObject();
+    }
+
+    private static void breakerToXContent(XContentBuilder builder, AnalysisCacheBreaker breaker) throws IOException {
+        builder.startObject("breaker");
+        builder.field("limit_size_in_bytes", breaker.getLimit() == Long.MAX_VALUE ? -1 : breaker.getLimit());
+        builder.field("estimated_size_in_bytes", breaker.getUsed());
+        builder.field("shed_entries", breaker.getShedEntries());
+        builder.endObject();
+    }
+
+    private static void filterStatsToXContent(XContentBuilder builder, VoikkoFilterStats stats) throws IOException {
+        builder.startObject("analyze");
+        stats.analyzeLatency.toXContent(builder, EMPTY_PARAMS);
+        builder.endObject();
+
+        builder.startObject("local_cache");
+        builder.field("hits", stats.localCacheHits.sum());
+        builder.field("misses", stats.localCacheMisses.sum());
+        builder.endObject();
+
+        builder.startObject("tokens");
+        builder.field("candidate", stats.candidateTokens.sum());
+        builder.field("skipped", stats.skippedTokens.sum());
+        builder.field("unknown", stats.unknownTokens.sum());
+        builder.endObject();
+    }
+
+    private static void addTo(VoikkoFilterStats stats, VoikkoFilterStats total) {
+        total.candidateTokens.add(stats.candidateTokens.sum());
+        total.skippedTokens.add(stats.skippedTokens.sum());
+        total.unknownTokens.add(stats.unknownTokens.sum());
+        total.localCacheHits.add(stats.localCacheHits.sum());
+        total.localCacheMisses.add(stats.localCacheMisses.sum());
+        stats.analyzeLatency.addTo(total.analyzeLatency);
+    }
+}
@@ -20,47 +20,131 @@ package fi.evident.elasticsearch.voikko.analysis;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.KeywordAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
-import org.puimula.libvoikko.Analysis;
-import org.puimula.libvoikko.Voikko;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.ThreadInterruptedException;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 final class VoikkoTokenFilter extends TokenFilter {
 
     private State current;
     private final VoikkoPool pool;
-    private final Voikko voikko;
     private final VoikkoTokenFilterConfiguration cfg;
 
     private final CharTermAttribute charTermAttribute = addAttribute(CharTermAttribute.class);
     private final PositionIncrementAttribute positionIncrementAttribute = addAttribute(PositionIncrementAttribute.class);
+    private final KeywordAttribute keywordAttribute = addAttribute(KeywordAttribute.class);
 
     private final Deque<String> alternatives = new ArrayDeque<>();
     private final AnalysisCache analysisCache;
+    private final BaseformLexicon lexicon;
+
+    /** Per-thread caches in front of the analysis cache, or {@code null} if they are disabled */
+    private final LocalAnalysisCache localCache;
+
+    /** Table of {@link #localCache} for the thread that last reset this stream */
+    private LocalAnalysisCache.Table localTable;
+
+    /** Words that Voikko could not analyze, or {@code null} if they are not remembered */
+    private final NegativeResultFilter negativeFilter;
+
+    /** Reused for every lookup so that cache hits don't allocate */
+    private final WordKey lookupKey = new WordKey();
+    private final IntsRefBuilder lexiconScratch = new IntsRefBuilder();
+
+    /** Lowercase copy of the current term when {@code foldCase} is set */
+    private char[] foldedBuffer = new char[0];
 
-    private static final Pattern VALID_WORD_PATTERN = Pattern.compile("[a-zA-ZåäöÅÄÖ-]+");
+    /** Set when pool was exhausted with {@link PoolExhaustedPolicy#CACHE_ONLY}, until the stream is reset */
+    private volatile boolean cacheOnly = false;
+
+    /** Executor for resolving cache misses of a lookahead batch in parallel, or {@code null} to resolve them in this thread */
+    private final Executor lookaheadExecutor;
+
+    // State of the current lookahead batch: captured tokens and their base forms (null for non-candidates)
+    private final List<State> batchStates = new ArrayList<>();
+    private final List<List<String>> batchResults = new ArrayList<>();
+    private final List<String> batchMisses = new ArrayList<>();
+    private int batchPosition = 0;
+
+    /** Set when input has returned its last token, so that it is not asked for more until the stream is reset */
+    private boolean inputExhausted = false;
+
+    // Token counts are collected locally and published to stats at the end of the stream
+    private final VoikkoFilterStats stats;
+    private long candidateTokens = 0;
+    private long skippedTokens = 0;
+    private long unknownTokens = 0;
+    private long localCacheHits = 0;
+    private long localCacheMisses = 0;
 
     VoikkoTokenFilter(TokenStream input,
                       VoikkoPool pool,
                       AnalysisCache analysisCache,
-                      VoikkoTokenFilterConfiguration cfg) throws InterruptedException {
+                      LocalAnalysisCache localCache,
+                      BaseformLexicon lexicon,
+                      NegativeResultFilter negativeFilter,
+                      Executor lookaheadExecutor,
+                      VoikkoFilterStats stats,
+                      VoikkoTokenFilterConfiguration cfg) {
         super(input);
         this.pool = pool;
-        this.voikko = pool.takeVoikko();
         this.analysisCache = analysisCache;
+        this.localCache = localCache;
+        this.lexicon = lexicon;
+        this.negativeFilter = negativeFilter;
+        this.lookaheadExecutor = lookaheadExecutor;
+        this.stats = stats;
         this.cfg = cfg;
     }
 
     @Override
-    public void close() throws IOException {
-        super.close();
-        pool.release(voikko);
+    public void reset() throws IOException {
+        super.reset();
+        alternatives.clear();
+        current = null;
+        cacheOnly = false;
+        inputExhausted = false;
+        clearBatch();
+        publishTokenCounts();
+        localTable = localCache != null ? localCache.forCurrentThread() : null;
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        publishTokenCounts();
+    }
+
+    private void publishTokenCounts() {
+        stats.candidateTokens.add(candidateTokens);
+        stats.skippedTokens.add(skippedTokens);
+        stats.unknownTokens.add(unknownTokens);
+        stats.localCacheHits.add(localCacheHits);
+        stats.localCacheMisses.add(localCacheMisses);
+        candidateTokens = 0;
+        skippedTokens = 0;
+        unknownTokens = 0;
+        localCacheHits = 0;
+        localCacheMisses = 0;
     }
 
     @Override
@@ -70,6 +154,9 @@ final class VoikkoTokenFilter extends TokenFilter {
             return true;
         }
 
+        if (cfg.lookahead > 0)
+            return incrementBatchedToken();
+
         if (input.incrementToken()) {
             analyzeToken();
             return true;
@@ -78,43 +165,315 @@ final class VoikkoTokenFilter extends TokenFilter {
         return false;
     }
 
-    private void analyzeToken() {
-        if (!isCandidateForAnalysis(charTermAttribute))
+    private void analyzeToken() throws IOException {
+        char[] buffer = charTermAttribute.buffer();
+        int length = charTermAttribute.length();
+        if (!isCandidateForAnalysis(buffer, length)) {
+            skippedTokens++;
             return;
+        }
+
+        candidateTokens++;
+        List<String> baseForms = analyze(buffer, length);
+        outputBaseForms(baseForms);
+    }
 
-        List<String> baseForms = analyze(charTermAttribute);
+    private void outputBaseForms(List<String> baseForms) {
         if (baseForms.isEmpty())
             return;
 
-        charTermAttribute.setEmpty().append(baseForms.get(0));
+        char[] original = charTermAttribute.buffer();
+        int length = charTermAttribute.length();
+        CaseOutput caseOutput = cfg.foldCase ? cfg.caseOutput : CaseOutput.DICTIONARY;
+
+        if (cfg.analyzeAll && baseForms.size() > 1)
+            for (int i = 1; i < baseForms.size(); i++)
+                alternatives.add(caseOutput.apply(baseForms.get(i), original, length));
+
+        charTermAttribute.setEmpty().append(caseOutput.apply(baseForms.get(0), original, length));
 
-        if (cfg.analyzeAll && baseForms.size() > 1) {
+        if (!alternatives.isEmpty())
             current = captureState();
+    }
+
+    private List<String> analyze(char[] buffer, int length) throws IOException {
+        List<String> result = analyzeCached(buffer, length);
+        if (result == null) {
+            WordKey word = lookupKey; // set to the possibly folded word by analyzeCached
+            result = analyzeUncached(word.toString());
+            if (result == null)
+                return emptyList(); // pool exhausted, pass the word through without caching the non-result
 
-            alternatives.addAll(baseForms.subList(1, baseForms.size()));
+            store(word, result);
         }
+        return result;
     }
 
-    private List<String> analyze(CharSequence wordSeq) {
-        String word = wordSeq.toString();
+    /**
+     * Returns the base forms from lexicon, the local cache of this thread or the shared cache, or {@code null}
+     * if the word needs to be analyzed by Voikko. Results found in the shared cache are promoted to the local one.
+     * Words remembered by the negative filter are not analyzed again, so they have no base forms.
+     * <p>
+     * When the caches are used only by this filter, they are checked before the lexicon and words found in
+     * the lexicon are stored in them, so that frequent words don't decode the lexicon entry on every hit.
+     * Shared caches are filled by filters with other lexicons, so then the lexicon has to be checked first.
+     */
+    private List<String> analyzeCached(char[] buffer, int length) throws IOException {
+        WordKey word = cfg.foldCase ? lookupKey.set(foldCase(buffer, length), 0, length) : lookupKey.set(buffer, 0, length);
+
+        if (lexicon != null && !cfg.cacheLexiconResults) {
+            List<String> result = lexicon.lookup(word, lexiconScratch);
+            if (result != null)
+                return result;
+        }
+
+        if (localTable != null) {
+            List<String> result = localTable.get(word);
+            if (result != null) {
+                localCacheHits++;
+                return result;
+            }
+            localCacheMisses++;
+        }
+
         List<String> result = analysisCache.get(word);
-        if (result == null) {
-            result = analyzeUncached(word);
+        if (result != null) {
+            if (localTable != null)
+                localTable.put(word, result);
+            return result;
+        }
+
+        if (lexicon != null) {
+            if (cfg.cacheLexiconResults) {
+                result = lexicon.lookup(word, lexiconScratch);
+                if (result != null) {
+                    store(word, result);
+                    return result;
+                }
+            }
+            if (cfg.lexiconOnly)
+                return emptyList(); // the backend would only look the word up again, so don't waste a pool slot or cache entry
+        }
+
+        if (negativeFilter != null && negativeFilter.mightContain(word)) {
+            unknownTokens++;
+            return emptyList();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the lowercase copy of given term, in a buffer reused for every token.
+     */
+    private char[] foldCase(char[] buffer, int length) {
+        if (foldedBuffer.length < length)
+            foldedBuffer = new char[ArrayUtil.oversize(length, Character.BYTES)];
+
+        for (int i = 0; i < length; i++)
+            foldedBuffer[i] = Character.toLowerCase(buffer[i]);
+        return foldedBuffer;
+    }
+
+    /**
+     * Stores the result of analysis in the cache, or in the negative filter if the word could not be analyzed,
+     * and in the local cache of this thread.
+     */
+    private void store(WordKey word, List<String> result) {
+        if (result.isEmpty() && negativeFilter != null)
+            negativeFilter.add(word);
+        else
             analysisCache.put(word, result);
+
+        if (localTable != null)
+            localTable.put(word, result);
+    }
+
+    /**
+     * Outputs the next token of current lookahead batch, reading a new batch if needed.
+     */
+    private boolean incrementBatchedToken() throws IOException {
+        if (batchPosition == batchStates.size() && !readBatch())
+            return false;
+
+        restoreState(batchStates.get(batchPosition));
+        List<String> baseForms = batchResults.get(batchPosition);
+        batchPosition++;
+
+        if (baseForms != null)
+            outputBaseForms(baseForms);
+
+        return true;
+    }
+
+    /**
+     * Reads up to {@code lookahead} tokens from input, resolving the distinct words that are
+     * not cached in parallel.
+     *
+     * @return false if input had no more tokens
+     */
+    private boolean readBatch() throws IOException {
+        clearBatch();
+        if (inputExhausted)
+            return false;
+
+        Map<String, List<String>> misses = new HashMap<>();
+        while (batchStates.size() < cfg.lookahead) {
+            if (!input.incrementToken()) {
+                inputExhausted = true;
+                break;
+            }
+
+            char[] buffer = charTermAttribute.buffer();
+            int length = charTermAttribute.length();
+
+            List<String> result = null;
+            String miss = null;
+            if (isCandidateForAnalysis(buffer, length)) {
+                candidateTokens++;
+                result = analyzeCached(buffer, length);
+                if (result == null) {
+                    miss = lookupKey.toString();
+                    misses.put(miss, null);
+                }
+            } else {
+                skippedTokens++;
+            }
+
+            batchStates.add(captureState());
+            batchResults.add(result);
+            batchMisses.add(miss);
+        }
+
+        if (batchStates.isEmpty())
+            return false;
+
+        if (!misses.isEmpty()) {
+            resolveMisses(misses);
+
+            for (int i = 0; i < batchMisses.size(); i++) {
+                String miss = batchMisses.get(i);
+                if (miss != null)
+                    batchResults.set(i, misses.get(miss));
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Analyzes the words that are keys of the map, storing the results as values. One of the words
+     * is analyzed in the calling thread while the rest are submitted to the lookahead executor.
+     */
+    private void resolveMisses(Map<String, List<String>> misses) {
+        List<String> words = new ArrayList<>(misses.keySet());
+        List<Future<List<String>>> futures = new ArrayList<>(words.size());
+
+        for (int i = 1; i < words.size(); i++) {
+            String word = words.get(i);
+            FutureTask<List<String>> task = new FutureTask<>(() -> analyzeUncached(word));
+            if (lookaheadExecutor != null) {
+                try {
+                    lookaheadExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            } else {
+                task.run();
+            }
+            futures.add(task);
+        }
+
+        storeResolved(misses, words.get(0), analyzeUncached(words.get(0)));
+
+        for (int i = 1; i < words.size(); i++)
+            storeResolved(misses, words.get(i), getResult(futures.get(i - 1)));
+    }
+
+    private void storeResolved(Map<String, List<String>> misses, String word, List<String> result) {
+        if (result != null) {
+            store(WordKey.of(word), result);
+            misses.put(word, result);
+        } else {
+            misses.put(word, emptyList()); // pool exhausted, pass the word through without caching the non-result
         }
-        return result;
     }
 
+    private static List<String> getResult(Future<List<String>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void clearBatch() {
+        batchStates.clear();
+        batchResults.clear();
+        batchMisses.clear();
+        batchPosition = 0;
+    }
+
+    /**
+     * Analyzes the word with Voikko borrowed from the pool only for the duration of the call,
+     * so that streams that are served from the cache don't hold on to native instances.
+     *
+     * @return base forms or {@code null} if no Voikko-instance was available
+     */
     private List<String> analyzeUncached(String word) {
-        List<Analysis> results = voikko.analyze(word);
-        List<String> baseForms = new ArrayList<>(results.size());
+        MorphologicalAnalyzer voikko = takeVoikko();
+        if (voikko == null)
+            return null;
 
-        for (Analysis result : results) {
-            String baseForm = result.get("BASEFORM");
-            if (baseForm != null)
-                baseForms.add(baseForm);
+        long start = System.nanoTime();
+        try {
+            return voikko.baseForms(word);
+        } finally {
+            long took = System.nanoTime() - start;
+            stats.analyzeLatency.record(took);
+            if (cfg.slowLog != null)
+                cfg.slowLog.maybeLog(word, took);
+            pool.release(voikko);
+        }
+    }
+
+    private MorphologicalAnalyzer takeVoikko() {
+        if (cacheOnly)
+            return null;
+
+        try {
+            if (cfg.acquireTimeoutNanos < 0)
+                return pool.takeVoikko();
+
+            MorphologicalAnalyzer voikko = pool.takeVoikko(cfg.acquireTimeoutNanos, NANOSECONDS);
+            if (voikko != null)
+                return voikko;
+
+            pool.recordExhausted(cfg.onPoolExhausted);
+            switch (cfg.onPoolExhausted) {
+                case BLOCK:
+                    return pool.takeVoikko();
+                case CACHE_ONLY:
+                    cacheOnly = true;
+                    return null;
+                case PASSTHROUGH:
+                    return null;
+                case FAIL:
+                    throw new EsRejectedExecutionException("timed out waiting for a Voikko-instance");
+                default:
+                    throw new IllegalStateException("unknown policy " + cfg.onPoolExhausted);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ThreadInterruptedException(e);
         }
-        return baseForms;
     }
 
     private void outputAlternative(String token) {
@@ -124,7 +483,32 @@ final class VoikkoTokenFilter extends TokenFilter {
         charTermAttribute.setEmpty().append(token);
     }
 
-    private boolean isCandidateForAnalysis(CharSequence word) {
-        return word.length() >= cfg.minimumWordSize && word.length() <= cfg.maximumWordSize && VALID_WORD_PATTERN.matcher(word).matches();
+    /**
+     * Returns true if the token should be analyzed, false if it is passed through as it is because it is
+     * marked as a keyword by an earlier filter, its size or characters don't match a word, or it is a bypass word.
+     */
+    private boolean isCandidateForAnalysis(char[] buffer, int length) {
+        if (keywordAttribute.isKeyword())
+            return false;
+
+        if (length < cfg.minimumWordSize || length > cfg.maximumWordSize)
+            return false;
+
+        for (int i = 0; i < length; i++)
+            if (!isValidWordChar(buffer[i]))
+                return false;
+
+        return cfg.bypassWords == null || !cfg.bypassWords.contains(buffer, 0, length);
+    }
+
+    /**
+     * Equivalent to matching {@code [a-zA-ZåäöÅÄÖ-]}, without the overhead of a regex matcher.
+     */
+    private static boolean isValidWordChar(char c) {
+        return (c >= 'a' && c <= 'z')
+            || (c >= 'A' && c <= 'Z')
+            || c == 'å' || c == 'ä' || c == 'ö'
+            || c == 'Å' || c == 'Ä' || c == 'Ö'
+            || c == '-';
     }
 }
@@ -16,6 +16,8 @@
 
 package fi.evident.elasticsearch.voikko.analysis;
 
+import org.apache.lucene.analysis.CharArraySet;
+
 final class VoikkoTokenFilterConfiguration {
 
     /** If true, use analysis candidates returned by Voikko, otherwise use only the first result. */
@@ -27,4 +29,31 @@ final class VoikkoTokenFilterConfiguration {
     /** Words longer than this threshold are ignored */
     int maximumWordSize = 100;
 
+    /** How long to wait for a Voikko-instance before applying {@link #onPoolExhausted}, negative to wait forever */
+    long acquireTimeoutNanos = -1;
+
+    /** What to do when acquiring Voikko-instance times out */
+    PoolExhaustedPolicy onPoolExhausted = PoolExhaustedPolicy.BLOCK;
+
+    /** Number of tokens to read ahead and resolve in parallel, zero to analyze tokens one at a time */
+    int lookahead = 0;
+
+    /** If true, words are looked up and analyzed in lowercase */
+    boolean foldCase = false;
+
+    /** Casing of base forms when {@link #foldCase} is set */
+    CaseOutput caseOutput = CaseOutput.DICTIONARY;
+
+    /** Words that are passed through without analysis, or {@code null} if there are none */
+    CharArraySet bypassWords = null;
+
+    /** If true, words missing from the lexicon are not analyzed at all, since the backend has nothing more to offer */
+    boolean lexiconOnly = false;
+
+    /** If true, the caches are used only by this filter, so they are checked before the lexicon and store its results */
+    boolean cacheLexiconResults = false;
+
+    /** Log for words that are slow to analyze, or {@code null} if they are not logged */
+    AnalysisSlowLog slowLog = null;
+
 }
@@ -16,55 +16,388 @@
 
 package fi.evident.elasticsearch.voikko.analysis;
 
+import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.ThreadInterruptedException;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.MemorySizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.IndexSettings;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.elasticsearch.index.analysis.AnalysisMode;
 import org.puimula.libvoikko.Voikko;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class VoikkoTokenFilterFactory extends AbstractTokenFilterFactory implements Closeable {
 
-    private final VoikkoPool voikkoPool;
+    private final VoikkoResourceRegistry registry;
+    private final VoikkoResources resources;
+    private final AnalysisCache cache;
+    private final BaseformLexicon lexicon;
+    private final NegativeResultFilter negativeFilter;
+    private final LocalAnalysisCache localCache;
+    private final boolean shared;
+    private final boolean updateable;
+    private final boolean registered;
+    private final String dictionaryVersion;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean discardSnapshot = false;
+    private final VoikkoFilterStats stats = new VoikkoFilterStats();
+    private final Environment environment;
+
+    /** Factory that creates the streams of this one until the pool of this one has been prewarmed */
+    private volatile VoikkoTokenFilterFactory replaced;
 
-    private final AnalysisCache analysisCache;
     private final VoikkoTokenFilterConfiguration cfg = new VoikkoTokenFilterConfiguration();
 
     public VoikkoTokenFilterFactory(IndexSettings indexSettings,
-                                    @SuppressWarnings("unused") Environment environment,
+                                    Environment environment,
                                     String name,
-                                    Settings settings) {
+                                    Settings settings,
+                                    VoikkoResourceRegistry registry) throws IOException {
         super(indexSettings,  name, settings);
+        this.registry = registry;
+        this.environment = environment;
 
         cfg.analyzeAll = settings.getAsBoolean("analyzeAll", cfg.analyzeAll);
         cfg.minimumWordSize = settings.getAsInt("minimumWordSize", cfg.minimumWordSize);
         cfg.maximumWordSize = settings.getAsInt("maximumWordSize", cfg.maximumWordSize);
-
-        analysisCache = new AnalysisCache(settings.getAsInt("analysisCacheSize", 1024));
+        cfg.acquireTimeoutNanos = settings.getAsTime("acquireTimeout", TimeValue.MINUS_ONE).nanos();
+        cfg.onPoolExhausted = PoolExhaustedPolicy.fromSetting(settings.get("onPoolExhausted", cfg.onPoolExhausted.toString()));
+        cfg.lookahead = settings.getAsInt("lookahead", cfg.lookahead);
+        cfg.foldCase = settings.getAsBoolean("foldCase", cfg.foldCase);
+        cfg.caseOutput = CaseOutput.fromSetting(settings.get("caseOutput", cfg.caseOutput.toString()));
+        cfg.bypassWords = parseBypassWords(settings);
+        cfg.slowLog = AnalysisSlowLog.fromSettings(indexSettings.getIndex().getName(), name, settings);
 
         String language = settings.get("language", "fi_FI");
         String dictionaryPath = settings.get("dictionaryPath");
+        List<String> libraryPath = settings.getAsList("libraryPath");
 
-        for (String dir : settings.getAsList("libraryPath"))
+        for (String dir : libraryPath)
             Voikko.addLibraryPath(dir);
 
-        voikkoPool = new VoikkoPool(language, dictionaryPath);
-        voikkoPool.setMaxSize(settings.getAsInt("poolMaxSize", 10));
+        AnalysisBackend backend = AnalysisBackend.fromSetting(settings.get("backend", AnalysisBackend.LIBVOIKKO.toString()));
+        cfg.lexiconOnly = backend == AnalysisBackend.LEXICON;
+        if (backend == AnalysisBackend.LIBVOIKKO_DIRECT)
+            DirectLibvoikkoAnalyzer.bind(libraryPath);
+
+        CacheRole cacheRole = CacheRole.fromSetting(settings.get("cacheRole", CacheRole.INDEX.toString()));
+        shared = settings.getAsBoolean("shared", false);
+        updateable = settings.getAsBoolean("updateable", false);
+        dictionaryVersion = AnalysisCacheSnapshot.dictionaryVersion(backend, language, dictionaryPath);
+        if (shared && !backend.usesLibvoikko())
+            throw new IllegalArgumentException("shared resources are only supported with backends 'libvoikko' and 'libvoikko_direct'");
+
+        negativeFilter = settings.getAsBoolean("negativeFilter", false)
+                ? new NegativeResultFilter(settings.getAsInt("negativeFilterSize", 10000))
+                : null;
+
+        String lexiconPath = settings.get("lexiconPath");
+        lexicon = lexiconPath != null ? BaseformLexicon.open(resolveConfigFile(lexiconPath)) : null;
+
+        registered = registry.shouldRegister(indexSettings.getIndex(), name, updateable);
+        VoikkoTokenFilterFactory previous = registered && updateable ? registry.getFactory(indexSettings.getIndex(), name) : null;
+
+        if (!registered) {
+            // Built for a single use and never closed: instances are terminated as soon as they are
+            // released and the cache is not charged to the breaker, so nothing outlives the factory
+            VoikkoPool pool = new VoikkoPool(backend.factory(language, dictionaryPath, lexicon));
+            pool.retire();
+            resources = new VoikkoResources(pool, AnalysisCacheType.LRU.create(settings.getAsInt("analysisCacheSize", 1024)));
+            cache = resources.cache;
+        } else if (shared) {
+            resources = registry.acquireShared(backend, language, dictionaryPath, libraryPath, cacheRole, indexSettings.getNodeSettings());
+            cache = cacheRole == CacheRole.SEARCH ? resources.searchCache : resources.cache;
+        } else {
+            AnalysisCacheType cacheType = AnalysisCacheType.fromSetting(settings.get("analysisCacheType", AnalysisCacheType.TINYLFU.toString()));
+            VoikkoPool pool = registry.createPool(backend.factory(language, dictionaryPath, lexicon),
+                    settings.getAsInt("poolMinSize", 0),
+                    VoikkoResourceRegistry.parsePoolMaxSize(settings.get("poolMaxSize", "10"), "poolMaxSize"),
+                    settings.getAsTime("poolIdleTimeout", TimeValue.timeValueMinutes(5)),
+                    indexSettings.getNodeSettings());
+            int cacheSize = settings.getAsInt("analysisCacheSize", 1024);
+            String maxBytes = settings.get("analysisCacheMaxBytes", "-1");
+            AnalysisCache analysisCache = canReuseCacheOf(previous, backend)
+                    ? previous.resources.cache
+                    : cacheType.create(cacheSize,
+                        VoikkoResourceRegistry.maxBytes(MemorySizeValue.parseBytesSizeValueOrHeapRatio(maxBytes, "analysisCacheMaxBytes")),
+                        registry.getBreaker());
+            resources = new VoikkoResources(pool, analysisCache);
+
+            if (settings.getAsBoolean("cacheSnapshot", false))
+                resources.snapshot = registry.createSnapshot(indexSettings.getIndex().getUUID() + "-" + name,
+                        dictionaryVersion,
+                        resources.cache,
+                        settings.getAsInt("cacheSnapshotSize", cacheSize));
+
+            cache = resources.cache; // the cache of a filter that is not shared is already isolated
+        }
+
+        if (shared && registered) {
+            localCache = cacheRole == CacheRole.SEARCH ? resources.searchLocalCache : resources.localCache;
+        } else {
+            int localCacheSize = settings.getAsInt("localCacheSize", 256);
+            localCache = localCacheSize > 0 ? new LocalAnalysisCache(localCacheSize, cache) : null;
+        }
+        cfg.cacheLexiconResults = !(shared && registered);
+
+        if (registered) {
+            previous = registry.registerFactory(indexSettings.getIndex(), this);
+            if (previous != null)
+                swapInWhenReady(previous);
+        }
+    }
+
+    /**
+     * Returns true if the results cached by the replaced factory are still valid, i.e. it analyzed
+     * with the same dictionary files. Results of the lexicon backend, and words of a lexicon that were
+     * stored in the cache, depend on the lexicon, which may have changed, so they are not reused.
+     */
+    private boolean canReuseCacheOf(VoikkoTokenFilterFactory previous, AnalysisBackend backend) {
+        return previous != null
+            && !previous.shared
+            && backend.usesLibvoikko()
+            && lexicon == null
+            && previous.lexicon == null
+            && previous.dictionaryVersion.equals(dictionaryVersion);
+    }
+
+    /**
+     * Keeps creating new streams with the replaced factory until the pool of this factory has been
+     * prewarmed, then switches over and retires the replaced factory. Streams use the pool and cache
+     * of the same factory, so results of the old dictionary never end up in the new cache.
+     */
+    private void swapInWhenReady(VoikkoTokenFilterFactory previous) {
+        replaced = previous;
+        resources.pool.whenReady().thenRun(() -> {
+            replaced = null;
+            previous.retire(resources.cache);
+        });
+    }
+
+    /**
+     * Returns the factory whose resources are used by new streams: this factory, or the factory it
+     * replaced if the pool of this one has not been prewarmed yet.
+     */
+    VoikkoTokenFilterFactory activeFactory() {
+        VoikkoTokenFilterFactory previous = replaced;
+        return previous != null ? previous.activeFactory() : this;
+    }
+
+    /**
+     * Releases the resources of a factory that was replaced when search analyzers were reloaded. Unlike
+     * in {@link #close()}, streams of this factory may still be running, so the pool is drained instead
+     * of closed, and the lexicon is left to be unmapped when it is garbage collected.
+     *
+     * @param keptCache cache taken over by the replacing factory, which must not be cleared
+     */
+    private void retire(AnalysisCache keptCache) {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        if (shared) {
+            registry.releaseShared(resources, true); // also takes care of the shared local cache
+        } else {
+            registry.retirePool(resources.pool);
+            if (resources.snapshot != null)
+                registry.stopSnapshot(resources.snapshot);
+            if (resources.cache != keptCache)
+                resources.cache.clear();
+            if (localCache != null)
+                localCache.invalidate(); // tables may still be in use by running streams, so they are not closed
+        }
     }
 
     @Override
-    public void close() {
-        voikkoPool.close();
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        if (!registered) {
+            resources.pool.close();
+        } else if (shared) {
+            registry.releaseShared(resources, false);
+        } else {
+            resources.pool.close();
+            if (resources.snapshot != null)
+                registry.releaseSnapshot(resources.snapshot, !discardSnapshot);
+            resources.cache.clear(); // releases the memory charged to the breaker
+        }
+
+        if (localCache != null && !(shared && registered))
+            localCache.close();
+
+        if (lexicon != null)
+            lexicon.close();
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
+        VoikkoTokenFilterFactory factory = activeFactory();
+        Executor lookaheadExecutor = factory.cfg.lookahead > 0 ? registry.getExecutor() : null;
+        return new VoikkoTokenFilter(tokenStream, factory.resources.pool, factory.cache, factory.localCache, factory.lexicon,
+                factory.negativeFilter, lookaheadExecutor, stats, factory.cfg);
+    }
+
+    /**
+     * Updateable filters can be used only in search analyzers, which can be reloaded
+     * with the reload search analyzers API after the dictionary has been updated.
+     */
+    @Override
+    public AnalysisMode getAnalysisMode() {
+        return updateable ? AnalysisMode.SEARCH_TIME : AnalysisMode.ALL;
+    }
+
+    /**
+     * Makes {@link #close()} delete the cache snapshot of this filter instead of saving it.
+     */
+    void discardSnapshot() {
+        discardSnapshot = true;
+    }
+
+    /**
+     * Analyzes given words and stores the results in the cache. Words are analyzed in parallel
+     * with as many tasks as the pool has instances, run in given executor and in the calling thread.
+     *
+     * @return number of words that were analyzed, i.e. were not already in the lexicon or the cache
+     */
+    int warmCache(List<String> words, Executor executor) throws IOException {
+        AtomicInteger nextWord = new AtomicInteger();
+        AtomicInteger analyzed = new AtomicInteger();
+
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        for (int i = 1; i < resources.pool.getMaxSize(); i++) {
+            FutureTask<Void> task = new FutureTask<>(() -> {
+                warmWords(words, nextWord, analyzed);
+                return null;
+            });
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                break; // the rest of the words are handled by the accepted tasks and the calling thread
+            }
+            tasks.add(task);
+        }
+
         try {
-            return new VoikkoTokenFilter(tokenStream, voikkoPool, analysisCache, cfg);
+            warmWords(words, nextWord, analyzed);
+            for (FutureTask<Void> task : tasks)
+                task.get();
         } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            Thread.currentThread().interrupt();
+            throw new ThreadInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+
+        return analyzed.get();
+    }
+
+    /**
+     * Analyzes words starting from {@code nextWord} until all words have been taken.
+     */
+    private void warmWords(List<String> words, AtomicInteger nextWord, AtomicInteger analyzed) throws IOException, InterruptedException {
+        WordKey key = new WordKey();
+        IntsRefBuilder scratch = new IntsRefBuilder();
+        for (int i = nextWord.getAndIncrement(); i < words.size(); i = nextWord.getAndIncrement()) {
+            String word = cfg.foldCase ? words.get(i).toLowerCase(Locale.ROOT) : words.get(i);
+            if (lexicon != null && (lexicon.lookup(word, scratch) != null || cfg.lexiconOnly))
+                continue;
+
+            char[] chars = word.toCharArray();
+            if (cache.get(key.set(chars, 0, chars.length)) != null)
+                continue;
+            if (negativeFilter != null && negativeFilter.mightContain(key))
+                continue;
+
+            MorphologicalAnalyzer voikko = resources.pool.takeVoikko();
+            try {
+                List<String> result = voikko.baseForms(word);
+                if (result.isEmpty() && negativeFilter != null)
+                    negativeFilter.add(key);
+                else
+                    cache.put(key, result);
+            } finally {
+                resources.pool.release(voikko);
+            }
+            analyzed.incrementAndGet();
         }
     }
+
+    /**
+     * Returns the words of {@code bypassWords} and the file in {@code bypassWordsPath}, or {@code null} if neither is set.
+     */
+    private CharArraySet parseBypassWords(Settings settings) throws IOException {
+        List<String> words = new ArrayList<>(settings.getAsList("bypassWords"));
+
+        String path = settings.get("bypassWordsPath");
+        if (path != null)
+            words.addAll(BaseformLexiconCompiler.readWords(resolveConfigFile(path)));
+
+        return words.isEmpty() ? null : CharArraySet.unmodifiableSet(new CharArraySet(words, false));
+    }
+
+    /**
+     * Resolves given path against the config directory, rejecting paths outside of it.
+     */
+    Path resolveConfigFile(String path) {
+        Path configDirectory = environment.configFile().toAbsolutePath().normalize();
+        Path file = configDirectory.resolve(path).normalize();
+        if (!file.startsWith(configDirectory))
+            throw new IllegalArgumentException("path [" + path + "] is outside of the config directory");
+        return file;
+    }
+
+    VoikkoResources getResources() {
+        return resources;
+    }
+
+    /**
+     * Returns the cache used by this filter, which for shared search filters is the search segment
+     * of the shared cache.
+     */
+    AnalysisCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the words this filter has found unknown, or {@code null} if they are not remembered.
+     */
+    NegativeResultFilter getNegativeFilter() {
+        return negativeFilter;
+    }
+
+    VoikkoFilterStats getStats() {
+        return stats;
+    }
+
+    boolean isShared() {
+        return shared;
+    }
+
+    boolean isUpdateable() {
+        return updateable;
+    }
 }
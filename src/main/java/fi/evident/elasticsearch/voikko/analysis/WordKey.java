@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Cache key referring to a range of characters, similar to the keys of Lucene's {@code CharArrayMap}.
+ * <p>
+ * A filter keeps a single instance that it points to its term buffer with {@link #set(char[], int, int)}
+ * for every lookup, so that looking up a cached word does not allocate anything. Caches must store
+ * {@link #copy() copies} of keys they are given, since the buffer behind a lookup key will change.
+ */
+final class WordKey implements CharSequence {
+
+    private char[] chars;
+    private int offset;
+    private int length;
+    private int hash;
+
+    WordKey() {
+        this(new char[0], 0, 0, 0);
+    }
+
+    private WordKey(char[] chars, int offset, int length, int hash) {
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
+        this.hash = hash;
+    }
+
+    static WordKey of(CharSequence word) {
+        char[] chars = word.toString().toCharArray();
+        return new WordKey(chars, 0, chars.length, hashOf(chars, 0, chars.length));
+    }
+
+    /**
+     * Points this key to given characters. The characters are not copied.
+     */
+    WordKey set(char[] buffer, int offset, int length) {
+        this.chars = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.hash = hashOf(buffer, offset, length);
+        return this;
+    }
+
+    /**
+     * Returns a key with its own copy of the characters.
+     */
+    WordKey copy() {
+        return new WordKey(Arrays.copyOfRange(chars, offset, offset + length), 0, length, hash);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for length " + length);
+        return chars[offset + index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end)
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") out of bounds for length " + length);
+        return new WordKey(chars, offset + start, end - start, hashOf(chars, offset + start, end - start));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof WordKey)) return false;
+
+        WordKey key = (WordKey) obj;
+        if (hash != key.hash || length != key.length)
+            return false;
+
+        for (int i = 0; i < length; i++)
+            if (chars[offset + i] != key.chars[key.offset + i])
+                return false;
+
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, offset, length);
+    }
+
+    /**
+     * Same hash as {@link String#hashCode()} would give for the characters.
+     */
+    private static int hashOf(char[] chars, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++)
+            h = 31 * h + chars[i];
+        return h;
+    }
+}
@@ -17,26 +17,170 @@
 package fi.evident.elasticsearch.voikko.plugin;
 
 import fi.evident.elasticsearch.voikko.analysis.FinnishTokenizerFactory;
+import fi.evident.elasticsearch.voikko.analysis.FinnishVoikkoAnalyzerProvider;
+import fi.evident.elasticsearch.voikko.analysis.RestVoikkoClearCacheAction;
+import fi.evident.elasticsearch.voikko.analysis.RestVoikkoHotWordsAction;
+import fi.evident.elasticsearch.voikko.analysis.RestVoikkoStatsAction;
+import fi.evident.elasticsearch.voikko.analysis.RestVoikkoWarmCacheAction;
+import fi.evident.elasticsearch.voikko.analysis.VoikkoBaseformsProcessor;
+import fi.evident.elasticsearch.voikko.analysis.VoikkoResourceRegistry;
 import fi.evident.elasticsearch.voikko.analysis.VoikkoTokenFilterFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.IndexModule;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.IndexSettings;
+import org.elasticsearch.index.analysis.AnalyzerProvider;
 import org.elasticsearch.index.analysis.TokenFilterFactory;
 import org.elasticsearch.index.analysis.TokenizerFactory;
+import org.elasticsearch.index.shard.IndexEventListener;
 import org.elasticsearch.indices.analysis.AnalysisModule;
+import org.elasticsearch.indices.cluster.IndicesClusterStateService.AllocatedIndices.IndexRemovalReason;
+import org.elasticsearch.ingest.Processor;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.AnalysisPlugin;
+import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 
-public class AnalysisVoikkoPlugin extends Plugin implements AnalysisPlugin {
+public class AnalysisVoikkoPlugin extends Plugin implements AnalysisPlugin, ActionPlugin, IngestPlugin {
+
+    private final VoikkoResourceRegistry registry = new VoikkoResourceRegistry();
+
+    /**
+     * Returns the registry of the Voikko resources of this node.
+     */
+    public VoikkoResourceRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public List<Setting<?>> getSettings() {
+        return VoikkoResourceRegistry.SETTINGS;
+    }
+
+    @Override
+    public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+        int processors = EsExecutors.numberOfProcessors(settings);
+        return singletonList(new FixedExecutorBuilder(settings, VoikkoResourceRegistry.THREAD_POOL_NAME, processors, 1000));
+    }
+
+    @Override
+    public Collection<Object> createComponents(Client client,
+                                               ClusterService clusterService,
+                                               ThreadPool threadPool,
+                                               ResourceWatcherService resourceWatcherService,
+                                               ScriptService scriptService,
+                                               NamedXContentRegistry xContentRegistry,
+                                               Environment environment,
+                                               NodeEnvironment nodeEnvironment,
+                                               NamedWriteableRegistry namedWriteableRegistry) {
+        registry.start(threadPool, clusterService, nodeEnvironment.nodeDataPaths()[0].resolve("voikko"), environment.settings());
+        return emptyList();
+    }
+
+    @Override
+    public List<RestHandler> getRestHandlers(Settings settings,
+                                             RestController restController,
+                                             ClusterSettings clusterSettings,
+                                             IndexScopedSettings indexScopedSettings,
+                                             SettingsFilter settingsFilter,
+                                             IndexNameExpressionResolver indexNameExpressionResolver,
+                                             Supplier<DiscoveryNodes> nodesInCluster) {
+        return Arrays.asList(
+                new RestVoikkoStatsAction(settings, restController, registry),
+                new RestVoikkoWarmCacheAction(settings, restController, registry),
+                new RestVoikkoClearCacheAction(settings, restController, registry),
+                new RestVoikkoHotWordsAction(settings, restController, registry));
+    }
+
+    @Override
+    public void onIndexModule(IndexModule indexModule) {
+        registry.indexCreated(indexModule.getIndex());
+        indexModule.addIndexEventListener(new IndexEventListener() {
+            @Override
+            public void afterIndexCreated(IndexService indexService) {
+                registry.indexServiceCreated(indexService.index());
+            }
+
+            @Override
+            public void afterIndexRemoved(Index index, IndexSettings indexSettings, IndexRemovalReason reason) {
+                try {
+                    registry.indexRemoved(index, reason == IndexRemovalReason.DELETED);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<TokenFilterFactory>> getTokenFilters() {
-        return singletonMap("voikko", VoikkoTokenFilterFactory::new);
+        return singletonMap("voikko", (indexSettings, environment, name, settings) ->
+                new VoikkoTokenFilterFactory(indexSettings, environment, name, settings, registry));
     }
 
     @Override
     public Map<String, AnalysisModule.AnalysisProvider<TokenizerFactory>> getTokenizers() {
         return singletonMap("finnish", FinnishTokenizerFactory::new);
     }
+
+    @Override
+    public Map<String, AnalysisModule.AnalysisProvider<AnalyzerProvider<? extends Analyzer>>> getAnalyzers() {
+        return singletonMap("finnish_voikko", new AnalysisModule.AnalysisProvider<AnalyzerProvider<? extends Analyzer>>() {
+            @Override
+            public AnalyzerProvider<? extends Analyzer> get(IndexSettings indexSettings, Environment environment, String name, Settings settings) throws IOException {
+                return new FinnishVoikkoAnalyzerProvider(indexSettings, environment, name, settings, registry);
+            }
+
+            @Override
+            public boolean requiresAnalysisSettings() {
+                // Otherwise the analyzer would be built for every index, acquiring the shared resources
+                // of the node even if the index never uses it
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public Map<String, Processor.Factory> getProcessors(Processor.Parameters parameters) {
+        return singletonMap(VoikkoBaseformsProcessor.TYPE, new VoikkoBaseformsProcessor.Factory(registry, parameters.env.settings()));
+    }
+
+    @Override
+    public void close() {
+        registry.close();
+    }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class AnalysisCacheSnapshotTests extends ESTestCase {
+
+    public void testSaveAndLoad() throws IOException {
+        Path file = createTempDir().resolve("test.snapshot");
+        AnalysisCache cache = AnalysisCacheType.LRU.create(100);
+        cache.put(WordKey.of("voikon"), asList("Voikko", "voikko"));
+        cache.put(WordKey.of("tällä"), singletonList("tämä"));
+        cache.put(WordKey.of("foobarbaz"), emptyList());
+        new AnalysisCacheSnapshot(file, "v1", cache, 100).save();
+
+        AnalysisCache restored = AnalysisCacheType.LRU.create(100);
+        assertEquals(3, new AnalysisCacheSnapshot(file, "v1", restored, 100).load());
+        assertEquals(asList("Voikko", "voikko"), restored.get(WordKey.of("voikon")));
+        assertEquals(singletonList("tämä"), restored.get(WordKey.of("tällä")));
+        assertEquals(emptyList(), restored.get(WordKey.of("foobarbaz")));
+        assertEquals(cache.hottest(3).keySet(), restored.hottest(3).keySet());
+    }
+
+    public void testSavesOnlyHottestEntries() throws IOException {
+        Path file = createTempDir().resolve("test.snapshot");
+        AnalysisCache cache = AnalysisCacheType.LRU.create(100);
+        cache.put(WordKey.of("a"), singletonList("a"));
+        cache.put(WordKey.of("b"), singletonList("b"));
+        new AnalysisCacheSnapshot(file, "v1", cache, 1).save();
+
+        AnalysisCache restored = AnalysisCacheType.LRU.create(100);
+        assertEquals(1, new AnalysisCacheSnapshot(file, "v1", restored, 1).load());
+        assertNotNull(restored.get(WordKey.of("b")));
+    }
+
+    public void testIgnoresSnapshotOfOtherDictionaryVersion() throws IOException {
+        Path file = createTempDir().resolve("test.snapshot");
+        AnalysisCache cache = AnalysisCacheType.LRU.create(100);
+        cache.put(WordKey.of("a"), singletonList("a"));
+        new AnalysisCacheSnapshot(file, "v1", cache, 100).save();
+
+        AnalysisCache restored = AnalysisCacheType.LRU.create(100);
+        assertEquals(-1, new AnalysisCacheSnapshot(file, "v2", restored, 100).load());
+        assertEquals(0, restored.size());
+    }
+
+    public void testDictionaryVersionWithoutPathFollowsDefaultDirectories() throws IOException {
+        Path directory = createTempDir();
+        List<Path> defaultDirectories = singletonList(directory);
+        Files.write(directory.resolve("index.txt"), "info: 1".getBytes(StandardCharsets.UTF_8));
+
+        String version = AnalysisCacheSnapshot.dictionaryVersion(AnalysisBackend.LIBVOIKKO, "fi_FI", null, defaultDirectories);
+        assertEquals(version, AnalysisCacheSnapshot.dictionaryVersion(AnalysisBackend.LIBVOIKKO, "fi_FI", null, defaultDirectories));
+
+        Files.write(directory.resolve("mor.vfst"), new byte[] { 1, 2, 3 });
+        assertFalse(version.equals(AnalysisCacheSnapshot.dictionaryVersion(AnalysisBackend.LIBVOIKKO, "fi_FI", null, defaultDirectories)));
+    }
+
+    public void testMissingSnapshot() throws IOException {
+        Path file = createTempDir().resolve("missing.snapshot");
+        assertEquals(-1, new AnalysisCacheSnapshot(file, "v1", AnalysisCacheType.LRU.create(100), 100).load());
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class AnalysisCacheTests extends ESTestCase {
+
+    public void testLRUCacheReturnsStoredValues() {
+        assertStoresValues(AnalysisCacheType.LRU.create(100));
+    }
+
+    public void testTinyLFUCacheReturnsStoredValues() {
+        assertStoresValues(AnalysisCacheType.TINYLFU.create(100));
+    }
+
+    public void testLRUCacheCopiesReusedLookupKey() {
+        assertCopiesReusedLookupKey(AnalysisCacheType.LRU.create(100));
+    }
+
+    public void testTinyLFUCacheCopiesReusedLookupKey() {
+        assertCopiesReusedLookupKey(AnalysisCacheType.TINYLFU.create(100));
+    }
+
+    public void testLRUCacheStats() {
+        assertRecordsStats(AnalysisCacheType.LRU.create(2));
+    }
+
+    public void testTinyLFUCacheStats() {
+        assertRecordsStats(AnalysisCacheType.TINYLFU.create(2));
+    }
+
+    public void testLRUCacheClear() {
+        assertClears(AnalysisCacheType.LRU.create(100));
+    }
+
+    public void testTinyLFUCacheClear() {
+        assertClears(AnalysisCacheType.TINYLFU.create(100));
+    }
+
+    public void testLRUCacheHottestAreMostRecentlyUsed() {
+        AnalysisCache cache = AnalysisCacheType.LRU.create(100);
+        cache.put(WordKey.of("a"), singletonList("a"));
+        cache.put(WordKey.of("b"), singletonList("b"));
+        cache.put(WordKey.of("c"), singletonList("c"));
+        cache.get(WordKey.of("a"));
+
+        assertEquals(asList("a", "c"), new ArrayList<>(cache.hottest(2).keySet()));
+    }
+
+    public void testTinyLFUCacheHottestAreMostFrequent() {
+        AnalysisCache cache = AnalysisCacheType.TINYLFU.create(100);
+        cache.put(WordKey.of("a"), singletonList("a"));
+        cache.put(WordKey.of("b"), singletonList("b"));
+        cache.put(WordKey.of("c"), singletonList("c"));
+        for (int i = 0; i < 5; i++)
+            cache.get(WordKey.of("b"));
+
+        assertEquals(asList("b", "c"), new ArrayList<>(cache.hottest(2).keySet()));
+        assertEquals(3, cache.hottest(10).size());
+    }
+
+    public void testLRUCacheIsBoundedByBytes() {
+        assertBoundedByBytes(AnalysisCacheType.LRU);
+    }
+
+    public void testTinyLFUCacheIsBoundedByBytes() {
+        assertBoundedByBytes(AnalysisCacheType.TINYLFU);
+    }
+
+    public void testLRUCacheShedsEntriesWhenBreakerTrips() {
+        assertShedsEntriesWhenBreakerTrips(AnalysisCacheType.LRU);
+    }
+
+    public void testTinyLFUCacheShedsEntriesWhenBreakerTrips() {
+        assertShedsEntriesWhenBreakerTrips(AnalysisCacheType.TINYLFU);
+    }
+
+    public void testSearchCacheIsNotEvictedByIndexing() {
+        AnalysisCache indexCache = AnalysisCacheType.LRU.create(10);
+        AnalysisCache searchCache = new SearchAnalysisCache(AnalysisCacheType.LRU.create(10), indexCache);
+
+        indexCache.put(WordKey.of("talon"), singletonList("talo"));
+        assertEquals(singletonList("talo"), searchCache.get(WordKey.of("talon")));
+        searchCache.put(WordKey.of("koiran"), singletonList("koira"));
+        assertNull(indexCache.get(WordKey.of("koiran")));
+
+        for (int i = 0; i < 100; i++)
+            indexCache.put(WordKey.of("word" + i), singletonList("word"));
+
+        assertEquals(singletonList("talo"), searchCache.get(WordKey.of("talon")));
+        assertEquals(singletonList("koira"), searchCache.get(WordKey.of("koiran")));
+        assertEquals(2, searchCache.size());
+    }
+
+    public void testLocalCacheIsThreadConfined() throws Exception {
+        LocalAnalysisCache localCache = new LocalAnalysisCache(100, AnalysisCacheType.TINYLFU.create(100));
+        assertEquals(128, localCache.getSize());
+
+        localCache.forCurrentThread().put(WordKey.of("talon"), singletonList("talo"));
+        assertSame(localCache.forCurrentThread(), localCache.forCurrentThread());
+        assertEquals(singletonList("talo"), localCache.forCurrentThread().get(WordKey.of("talon")));
+
+        Thread other = new Thread(() -> assertNull(localCache.forCurrentThread().get(WordKey.of("talon"))));
+        other.start();
+        other.join();
+    }
+
+    public void testLocalCacheIsInvalidatedByGeneration() {
+        LocalAnalysisCache localCache = new LocalAnalysisCache(16, AnalysisCacheType.TINYLFU.create(100));
+        LocalAnalysisCache.Table table = localCache.forCurrentThread();
+        table.put(WordKey.of("talon"), singletonList("talo"));
+
+        localCache.invalidate();
+        assertNull(table.get(WordKey.of("talon")));
+
+        table.put(WordKey.of("talon"), singletonList("talo"));
+        assertEquals(singletonList("talo"), table.get(WordKey.of("talon")));
+    }
+
+    public void testLocalCachesAreInvalidatedBySharedCacheClear() {
+        AnalysisCache sharedCache = AnalysisCacheType.TINYLFU.create(100);
+        LocalAnalysisCache.Table first = new LocalAnalysisCache(16, sharedCache).forCurrentThread();
+        LocalAnalysisCache.Table second = new LocalAnalysisCache(16, sharedCache).forCurrentThread();
+        first.put(WordKey.of("talon"), singletonList("talo"));
+        second.put(WordKey.of("talon"), singletonList("talo"));
+
+        sharedCache.clear();
+        assertNull(first.get(WordKey.of("talon")));
+        assertNull(second.get(WordKey.of("talon")));
+
+        first.put(WordKey.of("talon"), singletonList("talo"));
+        assertEquals(singletonList("talo"), first.get(WordKey.of("talon")));
+    }
+
+    public void testLocalCacheReplacesCollidingWords() {
+        LocalAnalysisCache.Table table = new LocalAnalysisCache(1, AnalysisCacheType.TINYLFU.create(100)).forCurrentThread();
+        table.put(WordKey.of("talon"), singletonList("talo"));
+        table.put(WordKey.of("koiran"), singletonList("koira"));
+
+        assertNull(table.get(WordKey.of("talon")));
+        assertEquals(singletonList("koira"), table.get(WordKey.of("koiran")));
+    }
+
+    public void testResultsAreInterned() {
+        AnalysisCache cache = AnalysisCacheType.TINYLFU.create(100);
+        cache.put(WordKey.of("talon"), new ArrayList<>(singletonList("talo")));
+        cache.put(WordKey.of("talossa"), new ArrayList<>(singletonList("talo")));
+        cache.put(WordKey.of("foo"), new ArrayList<>());
+
+        assertSame(cache.get(WordKey.of("talon")), cache.get(WordKey.of("talossa")));
+        assertSame(emptyList(), cache.get(WordKey.of("foo")));
+        expectThrows(UnsupportedOperationException.class, () -> cache.get(WordKey.of("talon")).add("x"));
+    }
+
+    public void testLRUCacheEvictsLeastRecentlyUsed() {
+        AnalysisCache cache = AnalysisCacheType.LRU.create(2);
+
+        cache.put(WordKey.of("a"), singletonList("a"));
+        cache.put(WordKey.of("b"), singletonList("b"));
+        cache.get(WordKey.of("a"));
+        cache.put(WordKey.of("c"), singletonList("c"));
+
+        assertNotNull(cache.get(WordKey.of("a")));
+        assertNull(cache.get(WordKey.of("b")));
+        assertNotNull(cache.get(WordKey.of("c")));
+    }
+
+    public void testTinyLFUCacheIsBounded() {
+        AnalysisCache cache = AnalysisCacheType.TINYLFU.create(100);
+
+        for (int i = 0; i < 10_000; i++)
+            cache.put(WordKey.of("word" + i), singletonList("word"));
+
+        int cached = 0;
+        for (int i = 0; i < 10_000; i++)
+            if (cache.get(WordKey.of("word" + i)) != null)
+                cached++;
+
+        assertTrue("expected at most 100 entries, but got " + cached, cached <= 100);
+    }
+
+    public void testTinyLFUCacheKeepsFrequentWordsDuringFlood() {
+        AnalysisCache cache = AnalysisCacheType.TINYLFU.create(100);
+
+        for (int i = 0; i < 10; i++)
+            cache.put(WordKey.of("frequent" + i), singletonList("frequent"));
+
+        int rareWord = 0;
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 10; i++) {
+                assertNotNull("frequent" + i + " was evicted on round " + round, cache.get(WordKey.of("frequent" + i)));
+                cache.get(WordKey.of("frequent" + i));
+            }
+
+            for (int i = 0; i < 500; i++, rareWord++)
+                cache.put(WordKey.of("rare" + rareWord), singletonList("rare"));
+        }
+    }
+
+    public void testConcurrentAccess() throws Exception {
+        AnalysisCache cache = AnalysisCacheType.TINYLFU.create(64);
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    String word = "word" + (i % 200);
+                    List<String> result = cache.get(WordKey.of(word));
+                    if (result == null)
+                        cache.put(WordKey.of(word), singletonList(word));
+                    else
+                        assertEquals(singletonList(word), result);
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+    }
+
+    public void testTinyLFUCacheStaysConsistentWhenClearedConcurrently() throws Exception {
+        long entryBytes = sharedEntryBytes();
+        long internedBytes = internedBytes();
+        AnalysisCacheBreaker breaker = new AnalysisCacheBreaker(Long.MAX_VALUE);
+        AnalysisCache cache = AnalysisCacheType.TINYLFU.create(10_000, Long.MAX_VALUE, breaker);
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    if (thread == 0 && i % 10 == 0)
+                        cache.clear();
+                    else
+                        cache.put(WordKey.of(String.format(Locale.ROOT, "word%04d", i % 10_000)), singletonList("word"));
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        // an entry put while the cache was being cleared may count its base form itself
+        assertEquals(cache.size(), cache.hottest(Integer.MAX_VALUE).size());
+        assertTrue(cache.getEstimatedBytes() >= cache.size() * entryBytes);
+        assertTrue(cache.getEstimatedBytes() <= cache.size() * (entryBytes + AnalysisCache.estimateBytes("word")) + internedBytes);
+        assertEquals(cache.getEstimatedBytes(), breaker.getUsed());
+    }
+
+    public void testSharedBaseFormsAreCountedOnceByInterner() {
+        AnalysisCacheBreaker breaker = new AnalysisCacheBreaker(Long.MAX_VALUE);
+        BaseformInterner interner = new BaseformInterner(1, breaker);
+
+        List<String> shared = interner.intern(singletonList(new String("koira")));
+        long internedBytes = interner.getEstimatedBytes();
+        assertTrue(internedBytes > AnalysisCache.estimateBytes("koira"));
+        assertSame(shared, interner.intern(singletonList(new String("koira"))));
+        assertEquals(internedBytes, interner.getEstimatedBytes());
+        assertTrue(interner.isShared(shared.get(0)));
+        assertEquals(AnalysisCache.ENTRY_OVERHEAD_BYTES + 2 * 6 + 8, AnalysisCache.estimateBytes("koiran", shared, interner));
+
+        // the interner is full, so the entry has to count its base form itself
+        List<String> unshared = interner.intern(singletonList("kissa"));
+        assertFalse(interner.isShared(unshared.get(0)));
+        assertEquals(internedBytes, interner.getEstimatedBytes());
+        assertEquals(AnalysisCache.ENTRY_OVERHEAD_BYTES + 2 * 6 + 8 + AnalysisCache.estimateBytes("kissa"),
+            AnalysisCache.estimateBytes("kissan", unshared, interner));
+
+        assertEquals(internedBytes, breaker.getUsed());
+        interner.clear();
+        assertEquals(0, interner.getEstimatedBytes());
+        assertEquals(0, breaker.getUsed());
+    }
+
+    private static void assertStoresValues(AnalysisCache cache) {
+        assertNull(cache.get(WordKey.of("foo")));
+
+        cache.put(WordKey.of("foo"), singletonList("bar"));
+        cache.put(WordKey.of("baz"), singletonList("quux"));
+
+        assertEquals(singletonList("bar"), cache.get(WordKey.of("foo")));
+        assertEquals(singletonList("quux"), cache.get(WordKey.of("baz")));
+    }
+
+    private static void assertBoundedByBytes(AnalysisCacheType type) {
+        long entryBytes = sharedEntryBytes();
+        long internedBytes = internedBytes();
+        AnalysisCache cache = type.create(1000, 10 * entryBytes + internedBytes, AnalysisCacheBreaker.UNLIMITED);
+
+        for (int i = 0; i < 100; i++)
+            cache.put(WordKey.of(String.format(Locale.ROOT, "word%04d", i)), singletonList("word"));
+
+        assertTrue("expected at most 10 entries, but got " + cache.size(), cache.size() <= 10);
+        assertTrue(cache.getEstimatedBytes() <= 10 * entryBytes + internedBytes);
+        assertEquals(cache.size() * entryBytes + internedBytes, cache.getEstimatedBytes());
+    }
+
+    private static void assertShedsEntriesWhenBreakerTrips(AnalysisCacheType type) {
+        long entryBytes = sharedEntryBytes();
+        long internedBytes = internedBytes();
+        AnalysisCacheBreaker breaker = new AnalysisCacheBreaker(10 * entryBytes + 2 * internedBytes);
+        AnalysisCache first = type.create(1000, Long.MAX_VALUE, breaker);
+        AnalysisCache second = type.create(1000, Long.MAX_VALUE, breaker);
+
+        for (int i = 0; i < 6; i++)
+            first.put(WordKey.of(String.format(Locale.ROOT, "word%04d", i)), singletonList("word"));
+        for (int i = 0; i < 100; i++)
+            second.put(WordKey.of(String.format(Locale.ROOT, "word%04d", i)), singletonList("word"));
+
+        assertEquals(6, first.size());
+        assertTrue(breaker.getUsed() <= 10 * entryBytes + 2 * internedBytes);
+        assertEquals(first.getEstimatedBytes() + second.getEstimatedBytes(), breaker.getUsed());
+        assertTrue(breaker.getShedEntries() > 0);
+
+        first.clear();
+        second.clear();
+        assertEquals(0, breaker.getUsed());
+    }
+
+    private static void assertClears(AnalysisCache cache) {
+        cache.put(WordKey.of("a"), singletonList("a"));
+        cache.put(WordKey.of("b"), singletonList("b"));
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEstimatedBytes());
+        assertNull(cache.get(WordKey.of("a")));
+        assertTrue(cache.hottest(10).isEmpty());
+
+        cache.put(WordKey.of("c"), singletonList("c"));
+        assertEquals(singletonList("c"), cache.get(WordKey.of("c")));
+    }
+
+    private static void assertRecordsStats(AnalysisCache cache) {
+        cache.get(WordKey.of("a"));
+        cache.put(WordKey.of("a"), singletonList("a"));
+        cache.get(WordKey.of("a"));
+        cache.put(WordKey.of("b"), singletonList("b"));
+        cache.put(WordKey.of("c"), singletonList("c"));
+
+        AnalysisCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(2, cache.size());
+    }
+
+    private static void assertCopiesReusedLookupKey(AnalysisCache cache) {
+        char[] buffer = "foobar".toCharArray();
+        WordKey lookupKey = new WordKey();
+
+        cache.put(lookupKey.set(buffer, 0, 3), singletonList("foo"));
+        "bazbar".getChars(0, 6, buffer, 0);
+
+        assertNull(cache.get(lookupKey.set(buffer, 0, 3)));
+        assertEquals(singletonList("foo"), cache.get(WordKey.of("foo")));
+        assertEquals(singletonList("foo"), cache.get(lookupKey.set("xfoo".toCharArray(), 1, 3)));
+    }
+
+    /**
+     * Returns the estimated bytes of an entry from an eight character word to the shared base form "word".
+     */
+    private static long sharedEntryBytes() {
+        BaseformInterner interner = new BaseformInterner(1, AnalysisCacheBreaker.UNLIMITED);
+        return AnalysisCache.estimateBytes("word0000", interner.intern(singletonList("word")), interner);
+    }
+
+    /**
+     * Returns the estimated bytes of an interner holding only the base form "word".
+     */
+    private static long internedBytes() {
+        BaseformInterner interner = new BaseformInterner(1, AnalysisCacheBreaker.UNLIMITED);
+        interner.intern(singletonList("word"));
+        return interner.getEstimatedBytes();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.logging.log4j.Level;
+import org.elasticsearch.test.ESTestCase;
+
+public class AnalysisSlowLogTests extends ESTestCase {
+
+    public void testLevelOfHighestExceededThreshold() {
+        AnalysisSlowLog slowLog = new AnalysisSlowLog("index", "voikko", 1000, 100, 10);
+
+        assertNull(slowLog.levelOf(9));
+        assertSame(Level.DEBUG, slowLog.levelOf(10));
+        assertSame(Level.INFO, slowLog.levelOf(999));
+        assertSame(Level.WARN, slowLog.levelOf(1000));
+    }
+
+    public void testDisabledLevelsAreSkipped() {
+        AnalysisSlowLog slowLog = new AnalysisSlowLog("index", "voikko", 1000, -1, 10);
+
+        assertSame(Level.DEBUG, slowLog.levelOf(999));
+        assertSame(Level.WARN, slowLog.levelOf(1000));
+    }
+}
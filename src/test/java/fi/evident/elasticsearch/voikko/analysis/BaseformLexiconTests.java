@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class BaseformLexiconTests extends ESTestCase {
+
+    public void testLookup() throws IOException {
+        SortedMap<String, List<String>> entries = new TreeMap<>();
+        entries.put("voikon", asList("Voikko", "voikko"));
+        entries.put("tällä", singletonList("tämä"));
+        entries.put("foobarbaz", emptyList());
+
+        Path file = createTempDir().resolve("lexicon.fst");
+        BaseformLexicon.write(file, entries);
+
+        try (BaseformLexicon lexicon = BaseformLexicon.open(file)) {
+            assertEquals(asList("Voikko", "voikko"), lexicon.lookup("voikon"));
+            assertEquals(singletonList("tämä"), lexicon.lookup("tällä"));
+            assertEquals(emptyList(), lexicon.lookup("foobarbaz"));
+            assertNull(lexicon.lookup("voikko"));
+            assertNull(lexicon.lookup("tä"));
+        }
+    }
+
+    public void testLexiconBackend() throws IOException {
+        SortedMap<String, List<String>> entries = new TreeMap<>();
+        entries.put("voikon", asList("Voikko", "voikko"));
+
+        Path file = createTempDir().resolve("lexicon.fst");
+        BaseformLexicon.write(file, entries);
+
+        try (BaseformLexicon lexicon = BaseformLexicon.open(file)) {
+            MorphologicalAnalyzer analyzer = AnalysisBackend.LEXICON.factory("fi_FI", null, lexicon).get();
+            assertEquals(asList("Voikko", "voikko"), analyzer.baseForms("voikon"));
+            assertEquals(emptyList(), analyzer.baseForms("tällä"));
+            analyzer.terminate();
+        }
+    }
+
+    public void testLexiconBackendRequiresLexicon() {
+        expectThrows(IllegalArgumentException.class, () -> AnalysisBackend.LEXICON.factory("fi_FI", null, null));
+    }
+}
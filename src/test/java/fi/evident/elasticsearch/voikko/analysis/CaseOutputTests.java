@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class CaseOutputTests extends ESTestCase {
+
+    public void testDictionaryKeepsBaseForm() {
+        assertEquals("Helsinki", apply(CaseOutput.DICTIONARY, "Helsinki", "HELSINGISSÄ"));
+        assertEquals("testata", apply(CaseOutput.DICTIONARY, "testata", "Testaan"));
+    }
+
+    public void testLowercase() {
+        assertEquals("helsinki", apply(CaseOutput.LOWERCASE, "Helsinki", "Helsingissä"));
+    }
+
+    public void testOriginalFollowsCasingOfWord() {
+        assertEquals("HELSINKI", apply(CaseOutput.ORIGINAL, "Helsinki", "HELSINGISSÄ"));
+        assertEquals("Testata", apply(CaseOutput.ORIGINAL, "testata", "Testaan"));
+        assertEquals("helsinki", apply(CaseOutput.ORIGINAL, "Helsinki", "helsingissä"));
+    }
+
+    private static String apply(CaseOutput output, String baseForm, String original) {
+        return output.apply(baseForm, original.toCharArray(), original.length());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class LatencyHistogramTests extends ESTestCase {
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++)
+            histogram.record(1000);
+        histogram.record(1_000_000);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(99 * 1000 + 1_000_000, histogram.getTotalNanos());
+        assertEquals(1024, histogram.percentile(50));
+        assertEquals(1024, histogram.percentile(99));
+        assertEquals(1 << 20, histogram.percentile(100));
+    }
+
+    public void testAddTo() {
+        LatencyHistogram first = new LatencyHistogram();
+        first.record(1000);
+        LatencyHistogram second = new LatencyHistogram();
+        second.record(1_000_000);
+
+        LatencyHistogram total = new LatencyHistogram();
+        first.addTo(total);
+        second.addTo(total);
+
+        assertEquals(2, total.getCount());
+        assertEquals(1_001_000, total.getTotalNanos());
+        assertEquals(1024, total.percentile(50));
+        assertEquals(1 << 20, total.percentile(100));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+public class NegativeResultFilterTests extends ESTestCase {
+
+    public void testRemembersAddedWords() {
+        NegativeResultFilter filter = new NegativeResultFilter(1000);
+        for (int i = 0; i < 500; i++)
+            filter.add(WordKey.of("unknown" + i));
+
+        for (int i = 0; i < 500; i++)
+            assertTrue(filter.mightContain(WordKey.of("unknown" + i)));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++)
+            if (filter.mightContain(WordKey.of("known" + i)))
+                falsePositives++;
+        assertTrue("too many false positives: " + falsePositives, falsePositives < 20);
+    }
+
+    public void testForgetsWordsSeenOnlyOnceWhenAging() {
+        NegativeResultFilter filter = new NegativeResultFilter(100);
+        filter.add(WordKey.of("once"));
+        filter.add(WordKey.of("often"));
+        filter.add(WordKey.of("often"));
+        for (int i = 0; i < 97; i++)
+            filter.add(WordKey.of("other" + i));
+
+        assertFalse(filter.mightContain(WordKey.of("once")));
+        assertTrue(filter.mightContain(WordKey.of("often")));
+    }
+
+    public void testClear() {
+        NegativeResultFilter filter = new NegativeResultFilter(100);
+        filter.add(WordKey.of("unknown"));
+        filter.clear();
+
+        assertFalse(filter.mightContain(WordKey.of("unknown")));
+    }
+}
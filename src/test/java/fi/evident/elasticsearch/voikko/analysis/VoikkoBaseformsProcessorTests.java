@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class VoikkoBaseformsProcessorTests extends ESTestCase {
+
+    private final VoikkoResourceRegistry registry = new VoikkoResourceRegistry();
+    private final VoikkoBaseformsProcessor.Factory factory = new VoikkoBaseformsProcessor.Factory(registry, Settings.EMPTY);
+
+    @After
+    public void closeRegistry() {
+        registry.close();
+    }
+
+    public void testRequiresFieldOrFields() {
+        expectThrows(ElasticsearchParseException.class, () -> factory.create(null, "tag", new HashMap<>()));
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "body");
+        config.put("fields", asList("title", "body"));
+        expectThrows(ElasticsearchParseException.class, () -> factory.create(null, "tag", config));
+    }
+
+    public void testTargetFieldCanNotBeUsedWithFields() {
+        Map<String, Object> config = new HashMap<>();
+        config.put("fields", asList("title", "body"));
+        config.put("target_field", "baseforms");
+        expectThrows(ElasticsearchParseException.class, () -> factory.create(null, "tag", config));
+    }
+
+    public void testProcessorsWithSameConfigurationReportSharedResourcesOnce() throws Exception {
+        Map<String, Object> config = new HashMap<>();
+        config.put("field", "title");
+        factory.create(null, "first", config);
+
+        config = new HashMap<>();
+        config.put("field", "body");
+        factory.create(null, "second", config);
+
+        assertEquals(1, registry.getProcessorResources().size());
+    }
+
+    public void testWritesBaseFormsToTargetFields() throws Exception {
+        VoikkoTokenFilterConfiguration cfg = new VoikkoTokenFilterConfiguration();
+        cfg.lookahead = 2;
+
+        // A single thread named like the threads of the voikko pool: if the fields analyzed in it
+        // queued their lookahead behind themselves, the processor would never finish.
+        ExecutorService executor = Executors.newFixedThreadPool(1, task -> new Thread(task, "elasticsearch[test][voikko][T#1]"));
+        VoikkoPool pool = new VoikkoPool(DictionaryAnalyzer::new);
+        try {
+            Analyzer analyzer = VoikkoBaseformsProcessor.newAnalyzer(pool, AnalysisCacheType.TINYLFU.create(100), true,
+                    executor, new VoikkoFilterStats(), cfg);
+            VoikkoBaseformsProcessor processor = new VoikkoBaseformsProcessor("tag",
+                    asList("title", "body", "tags"), asList("title_baseforms", "body_baseforms", "tags_baseforms"),
+                    false, analyzer, executor);
+
+            Map<String, Object> source = new HashMap<>();
+            source.put("title", "Koirat ja kissat");
+            source.put("body", "Koirat asuvat talossa ja kissat talossa");
+            source.put("tags", asList("kissat", "talossa koirat"));
+            IngestDocument document = processor.execute(new IngestDocument(source, new HashMap<>()));
+
+            assertEquals("koira ja kissa", document.getFieldValue("title_baseforms", String.class));
+            assertEquals("koira asua talo ja kissa talo", document.getFieldValue("body_baseforms", String.class));
+            assertEquals(asList("kissa", "talo koira"), document.getFieldValue("tags_baseforms", List.class));
+            assertEquals("Koirat ja kissat", document.getFieldValue("title", String.class));
+        } finally {
+            terminate(executor);
+            pool.close();
+        }
+    }
+
+    private static final class DictionaryAnalyzer implements MorphologicalAnalyzer {
+
+        private static final Map<String, String> BASE_FORMS = new HashMap<>();
+
+        static {
+            BASE_FORMS.put("koirat", "koira");
+            BASE_FORMS.put("kissat", "kissa");
+            BASE_FORMS.put("asuvat", "asua");
+            BASE_FORMS.put("talossa", "talo");
+            BASE_FORMS.put("ja", "ja");
+        }
+
+        @Override
+        public List<String> baseForms(String word) {
+            String baseForm = BASE_FORMS.get(word);
+            return baseForm != null ? singletonList(baseForm) : emptyList();
+        }
+
+        @Override
+        public void terminate() {
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.test.ESTestCase;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+
+public class VoikkoPoolTests extends ESTestCase {
+
+    public void testTimedTakeReturnsNullWhenPoolIsExhausted() throws InterruptedException {
+        VoikkoPool pool = new VoikkoPool(() -> { throw new AssertionError("should not create instances"); });
+        pool.setMaxSize(0);
+
+        long start = System.nanoTime();
+        assertNull(pool.takeVoikko(50, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    public void testExhaustedCountsArePerPolicy() {
+        VoikkoPool pool = new VoikkoPool(() -> { throw new AssertionError("should not create instances"); });
+
+        pool.recordExhausted(PoolExhaustedPolicy.PASSTHROUGH);
+        pool.recordExhausted(PoolExhaustedPolicy.PASSTHROUGH);
+        pool.recordExhausted(PoolExhaustedPolicy.FAIL);
+
+        assertEquals(2, pool.getExhaustedCount(PoolExhaustedPolicy.PASSTHROUGH));
+        assertEquals(1, pool.getExhaustedCount(PoolExhaustedPolicy.FAIL));
+        assertEquals(0, pool.getExhaustedCount(PoolExhaustedPolicy.BLOCK));
+    }
+
+    public void testStats() throws InterruptedException {
+        VoikkoPool pool = new VoikkoPool(() -> new MorphologicalAnalyzer() {
+            @Override
+            public List<String> baseForms(String word) {
+                return singletonList(word);
+            }
+
+            @Override
+            public void terminate() {
+            }
+        });
+        pool.setMaxSize(2);
+
+        MorphologicalAnalyzer first = pool.takeVoikko();
+        MorphologicalAnalyzer second = pool.takeVoikko();
+        pool.release(first);
+
+        assertEquals(2, pool.getSize());
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(0, pool.getWaiterCount());
+        assertEquals(2, pool.getAcquireWait().getCount());
+
+        pool.release(second);
+        pool.close();
+    }
+
+    public void testRetiredPoolTerminatesInstancesAsTheyAreReleased() throws InterruptedException {
+        AtomicInteger terminated = new AtomicInteger();
+        VoikkoPool pool = new VoikkoPool(() -> new MorphologicalAnalyzer() {
+            @Override
+            public List<String> baseForms(String word) {
+                return singletonList(word);
+            }
+
+            @Override
+            public void terminate() {
+                terminated.incrementAndGet();
+            }
+        });
+        pool.setMaxSize(2);
+        pool.setMinSize(2);
+        pool.prewarm();
+        assertTrue(pool.whenReady().isDone());
+
+        MorphologicalAnalyzer borrowed = pool.takeVoikko();
+        pool.retire();
+        assertEquals(1, terminated.get());
+        assertEquals(1, pool.getSize());
+
+        pool.release(borrowed);
+        assertEquals(2, terminated.get());
+        assertEquals(0, pool.getSize());
+        assertEquals(0, pool.getFreeCount());
+    }
+
+    public void testClosedPoolRejectsTimedTake() {
+        VoikkoPool pool = new VoikkoPool(() -> { throw new AssertionError("should not create instances"); });
+        pool.close();
+
+        expectThrows(IllegalStateException.class, () -> pool.takeVoikko(1, TimeUnit.MILLISECONDS));
+    }
+}
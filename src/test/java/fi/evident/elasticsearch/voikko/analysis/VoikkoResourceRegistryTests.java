@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.TestEnvironment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.test.ESTestCase;
+import org.elasticsearch.test.IndexSettingsModule;
+import org.elasticsearch.threadpool.TestThreadPool;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
+public class VoikkoResourceRegistryTests extends ESTestCase {
+
+    private final VoikkoResourceRegistry registry = new VoikkoResourceRegistry();
+
+    public void testSameConfigurationSharesResources() throws IOException {
+        VoikkoResources first = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY);
+        VoikkoResources second = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY);
+
+        assertSame(first, second);
+        assertEquals(2, first.references);
+        assertNotNull(first.localCache);
+        assertNull(first.searchLocalCache);
+
+        VoikkoResources search = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.SEARCH, Settings.EMPTY);
+        assertSame(first, search);
+        assertNotNull(search.searchLocalCache);
+        assertNotSame(search.localCache, search.searchLocalCache);
+    }
+
+    public void testDifferentConfigurationsDoNotShareResources() throws IOException {
+        VoikkoResources first = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY);
+
+        assertNotSame(first, registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/other-dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY));
+        assertNotSame(first, registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", null, emptyList(), CacheRole.INDEX, Settings.EMPTY));
+        assertNotSame(first, registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", singletonList("/lib"), CacheRole.INDEX, Settings.EMPTY));
+        assertNotSame(first, registry.acquireShared(AnalysisBackend.LIBVOIKKO_DIRECT, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY));
+    }
+
+    public void testBackendsHaveSeparateSharedResourcesAndSnapshots() throws IOException {
+        ThreadPool threadPool = new TestThreadPool(getTestName());
+        try {
+            Settings nodeSettings = Settings.builder().put(VoikkoResourceRegistry.SHARED_CACHE_SNAPSHOT.getKey(), true).build();
+            registry.start(threadPool, null, createTempDir(), nodeSettings);
+
+            VoikkoResources jna = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, nodeSettings);
+            VoikkoResources direct = registry.acquireShared(AnalysisBackend.LIBVOIKKO_DIRECT, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, nodeSettings);
+            assertNotSame(jna, direct);
+            assertSame(direct, registry.acquireShared(AnalysisBackend.LIBVOIKKO_DIRECT, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, nodeSettings));
+
+            jna.cache.put(WordKey.of("talon"), singletonList("talo"));
+            direct.cache.put(WordKey.of("koiran"), singletonList("koira"));
+            jna.snapshot.save();
+            direct.snapshot.save();
+
+            assertFalse(jna.snapshot.getFile().equals(direct.snapshot.getFile()));
+            assertTrue(Files.exists(jna.snapshot.getFile()));
+            assertTrue(Files.exists(direct.snapshot.getFile()));
+        } finally {
+            registry.close();
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    public void testPoolIsClosedWhenLastReferenceIsReleased() throws IOException {
+        VoikkoResources first = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY);
+        VoikkoResources second = registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY);
+
+        registry.releaseShared(first, false);
+        registry.releaseShared(second, false);
+
+        expectThrows(IllegalStateException.class, () -> first.pool.takeVoikko());
+        assertNotSame(first, registry.acquireShared(AnalysisBackend.LIBVOIKKO, "fi_FI", "/dicts", emptyList(), CacheRole.INDEX, Settings.EMPTY));
+    }
+
+    public void testOnlyFactoriesOfCreatedIndicesAreRegistered() throws IOException {
+        Index index = new Index("test", "uuid");
+        assertFalse(registry.shouldRegister(index, "voikko", false));
+
+        registry.indexCreated(index);
+        assertTrue(registry.shouldRegister(index, "voikko", false));
+        assertFalse(registry.shouldRegister(new Index("test", "other-uuid"), "voikko", false));
+
+        registry.indexRemoved(index, false);
+        assertFalse(registry.shouldRegister(index, "voikko", false));
+    }
+
+    public void testIndicesWhoseServiceIsNotCreatedAreReleased() throws IOException {
+        Index failed = new Index("failed", "uuid");
+        Index created = new Index("created", "uuid");
+        registry.indexCreated(failed);
+        registry.indexCreated(created);
+        VoikkoTokenFilterFactory factory = newFactory(failed, Settings.EMPTY);
+        registry.indexServiceCreated(created);
+
+        registry.releaseAbandonedIndices();
+        assertTrue(registry.shouldRegister(failed, "other", false));
+
+        registry.releaseAbandonedIndices();
+        assertFalse(registry.shouldRegister(failed, "other", false));
+        assertNull(registry.getFactory(failed, "voikko"));
+        assertTrue(factory.getResources().pool.isClosed());
+        assertTrue(registry.shouldRegister(created, "voikko", false));
+
+        registry.indexRemoved(created, false);
+    }
+
+    public void testThrowawayFactoriesAreNotRegistered() throws IOException {
+        Index index = new Index("test", "uuid");
+        registry.indexCreated(index);
+
+        VoikkoTokenFilterFactory first = newFactory(index, Settings.EMPTY);
+        VoikkoTokenFilterFactory duplicate = newFactory(index, Settings.EMPTY);
+        VoikkoTokenFilterFactory inline = newFactory(new Index("_na_", "_na_"), Settings.EMPTY);
+
+        assertEquals(singletonList(first), registry.getFactories());
+        assertSame(first, registry.getFactory(index, "voikko"));
+
+        duplicate.close();
+        inline.close();
+        registry.indexRemoved(index, false);
+        assertTrue(registry.getFactories().isEmpty());
+    }
+
+    public void testReloadedFactoryUsesReplacedFactoryUntilItsPoolIsPrewarmed() throws Exception {
+        // A single generic thread, so that prewarming the new pool can be held back
+        ThreadPool threadPool = new TestThreadPool(getTestName(), Settings.builder()
+                .put("thread_pool.generic.core", 1)
+                .put("thread_pool.generic.max", 1)
+                .build());
+        CountDownLatch prewarmAllowed = new CountDownLatch(1);
+        try {
+            registry.start(threadPool, null, createTempDir(), Settings.EMPTY);
+            Index index = new Index("test", "uuid");
+            registry.indexCreated(index);
+
+            VoikkoTokenFilterFactory first = newFactory(index, Settings.builder().put("updateable", true).build());
+            threadPool.generic().execute(() -> {
+                try {
+                    prewarmAllowed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            VoikkoTokenFilterFactory second = newFactory(index, Settings.builder().put("updateable", true).put("poolMinSize", 1).build());
+
+            assertSame(second, registry.getFactory(index, "voikko"));
+            assertSame(first, second.activeFactory());
+
+            prewarmAllowed.countDown();
+            assertBusy(() -> assertSame(second, second.activeFactory()));
+
+            second.close();
+        } finally {
+            prewarmAllowed.countDown();
+            registry.close();
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    public void testParsePoolMaxSize() {
+        assertEquals(5, VoikkoResourceRegistry.parsePoolMaxSize("5", "poolMaxSize"));
+        assertEquals(VoikkoResourceRegistry.AUTO_POOL_SIZE, VoikkoResourceRegistry.parsePoolMaxSize("auto", "poolMaxSize"));
+        expectThrows(IllegalArgumentException.class, () -> VoikkoResourceRegistry.parsePoolMaxSize("0", "poolMaxSize"));
+    }
+
+    private VoikkoTokenFilterFactory newFactory(Index index, Settings filterSettings) throws IOException {
+        Settings nodeSettings = Settings.builder().put("path.home", createTempDir()).build();
+        return new VoikkoTokenFilterFactory(IndexSettingsModule.newIndexSettings(index, Settings.EMPTY),
+                TestEnvironment.newEnvironment(nodeSettings), "voikko", filterSettings, registry);
+    }
+}
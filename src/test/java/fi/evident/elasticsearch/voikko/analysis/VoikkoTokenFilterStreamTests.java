@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013-2017 Evident Solutions Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package fi.evident.elasticsearch.voikko.analysis;
+
+import org.apache.lucene.analysis.MockTokenizer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.elasticsearch.test.ESTestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+
+/**
+ * Tests of {@link VoikkoTokenFilter} with an analyzer that doesn't need libvoikko. The input is
+ * read with {@link MockTokenizer}, which fails if the filter breaks the token stream contract.
+ */
+public class VoikkoTokenFilterStreamTests extends ESTestCase {
+
+    private final VoikkoTokenFilterConfiguration cfg = new VoikkoTokenFilterConfiguration();
+    private final AnalysisCache cache = AnalysisCacheType.TINYLFU.create(100);
+
+    public void testInputIsNotReadAfterPartialBatch() throws IOException {
+        cfg.lookahead = 4;
+
+        assertEquals(asList("YKSI", "KAKSI", "KOLME", "NELJÄ", "VIISI"), analyze("yksi kaksi kolme neljä viisi"));
+        assertEquals(asList("KUUSI", "SEITSEMÄN"), analyze("kuusi seitsemän"));
+    }
+
+    public void testLexiconMissesAreNotAnalyzedWithLexiconBackend() throws IOException {
+        SortedMap<String, List<String>> entries = new TreeMap<>();
+        entries.put("voikon", singletonList("voikko"));
+        Path file = createTempDir().resolve("lexicon.fst");
+        BaseformLexicon.write(file, entries);
+
+        cfg.lexiconOnly = true;
+        try (BaseformLexicon lexicon = BaseformLexicon.open(file)) {
+            VoikkoPool pool = new VoikkoPool(() -> { throw new AssertionError("should not create instances"); });
+            assertEquals(asList("voikko", "tällä"), analyze("voikon tällä", pool, lexicon));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    public void testLexiconHitsAreCachedWhenCachesAreNotShared() throws IOException {
+        cfg.cacheLexiconResults = true;
+        try (BaseformLexicon lexicon = writeLexicon("voikon", "voikko")) {
+            assertEquals(asList("voikko", "TÄLLÄ"), analyze("voikon tällä", new VoikkoPool(UpperCaseAnalyzer::new), lexicon));
+            assertEquals(singletonList("voikko"), cache.get(new WordKey().set("voikon".toCharArray(), 0, 6)));
+            assertEquals(2, cache.size());
+        }
+    }
+
+    public void testLexiconIsCheckedBeforeSharedCache() throws IOException {
+        WordKey key = new WordKey().set("voikon".toCharArray(), 0, 6);
+        cache.put(key, singletonList("VOIKON")); // stored by a filter without the lexicon
+
+        try (BaseformLexicon lexicon = writeLexicon("voikon", "voikko")) {
+            assertEquals(singletonList("voikko"), analyze("voikon", new VoikkoPool(UpperCaseAnalyzer::new), lexicon));
+            assertEquals(singletonList("VOIKON"), cache.get(key));
+        }
+    }
+
+    private BaseformLexicon writeLexicon(String word, String baseForm) throws IOException {
+        SortedMap<String, List<String>> entries = new TreeMap<>();
+        entries.put(word, singletonList(baseForm));
+        Path file = createTempDir().resolve("lexicon.fst");
+        BaseformLexicon.write(file, entries);
+        return BaseformLexicon.open(file);
+    }
+
+    private List<String> analyze(String text) throws IOException {
+        return analyze(text, new VoikkoPool(UpperCaseAnalyzer::new), null);
+    }
+
+    private List<String> analyze(String text, VoikkoPool pool, BaseformLexicon lexicon) throws IOException {
+        Tokenizer tokenizer = new MockTokenizer();
+        tokenizer.setReader(new StringReader(text));
+
+        List<String> terms = new ArrayList<>();
+        try (TokenStream stream = new VoikkoTokenFilter(tokenizer, pool, cache, null, lexicon, null, null, new VoikkoFilterStats(), cfg)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken())
+                terms.add(term.toString());
+            stream.end();
+        } finally {
+            pool.close();
+        }
+        return terms;
+    }
+
+    private static final class UpperCaseAnalyzer implements MorphologicalAnalyzer {
+
+        @Override
+        public List<String> baseForms(String word) {
+            return singletonList(word.toUpperCase(Locale.ROOT));
+        }
+
+        @Override
+        public void terminate() {
+        }
+    }
+}
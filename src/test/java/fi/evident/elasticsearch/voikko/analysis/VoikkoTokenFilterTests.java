@@ -27,6 +27,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.analysis.NamedAnalyzer;
 import org.elasticsearch.test.ESTestCase;
+import org.junit.After;
 import org.junit.Before;
 
 import java.io.IOException;
@@ -42,6 +43,7 @@ import static java.util.Arrays.asList;
 public class VoikkoTokenFilterTests extends ESTestCase {
 
     private final Settings.Builder settings = Settings.builder();
+    private final AnalysisVoikkoPlugin plugin = new AnalysisVoikkoPlugin();
 
     @SuppressWarnings("Convert2Lambda")
     @Before
@@ -74,10 +76,20 @@ public class VoikkoTokenFilterTests extends ESTestCase {
 
         settings.put("index.analysis.filter.myFilter.type", "voikko");
 
-        if (voikkoPath != null)
+        settings.put("index.analysis.analyzer.fused.type", "finnish_voikko");
+
+        if (voikkoPath != null) {
             settings.put("index.analysis.filter.myFilter.libraryPath", voikkoPath);
+            settings.put("index.analysis.analyzer.fused.libraryPath", voikkoPath);
+        }
 
         settings.put("index.analysis.filter.myFilter.dictionaryPath", dictDirectory.toAbsolutePath());
+        settings.put("index.analysis.analyzer.fused.dictionaryPath", dictDirectory.toAbsolutePath());
+    }
+
+    @After
+    public void closePlugin() {
+        plugin.close();
     }
 
     public void testDefaultSettings() {
@@ -128,6 +140,117 @@ public class VoikkoTokenFilterTests extends ESTestCase {
                 token("yksinkertaisesti", "yksinkertainen", 0));
     }
 
+    public void testSharedResources() {
+        settings.put("index.analysis.filter.myFilter.shared", true);
+
+        VoikkoResources resources = getFactory(new Index("first", "first-uuid")).getResources();
+        assertSame(resources, getFactory(new Index("second", "second-uuid")).getResources());
+        assertEquals(2, resources.references);
+
+        assertTokens("Testaan voikon analyysiä tällä tavalla yksinkertaisesti.",
+                token("Testaan", "testata", 1),
+                token("voikon", "Voikko", 1),
+                token("analyysiä", "analyysi", 1),
+                token("tällä", "tämä", 1),
+                token("tavalla", "tapa", 1),
+                token("yksinkertaisesti", "yksinkertainen", 1));
+    }
+
+    public void testDirectBackend() {
+        settings.put("index.analysis.filter.myFilter.backend", "libvoikko_direct");
+
+        assertTokens("Testaan voikon analyysiä tällä tavalla yksinkertaisesti.",
+                token("Testaan", "testata", 1),
+                token("voikon", "Voikko", 1),
+                token("analyysiä", "analyysi", 1),
+                token("tällä", "tämä", 1),
+                token("tavalla", "tapa", 1),
+                token("yksinkertaisesti", "yksinkertainen", 1));
+    }
+
+    public void testDirectBackendRejectsConflictingLibraryPath() {
+        settings.put("index.analysis.filter.myFilter.backend", "libvoikko_direct");
+        getAnalysisService();
+        assumeTrue("libvoikko could not be bound directly", DirectLibvoikkoAnalyzer.isAvailable());
+
+        settings.putList("index.analysis.filter.myFilter.libraryPath", "/nonexistent/voikko");
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, () -> getAnalysisService(new Index("other", "other-uuid")));
+        assertTrue(e.getMessage(), e.getMessage().contains("/nonexistent/voikko"));
+    }
+
+    public void testSharedResourcesWithDirectBackend() {
+        settings.put("index.analysis.filter.myFilter.shared", true);
+        VoikkoResources jna = getFactory(new Index("jna", "jna-uuid")).getResources();
+
+        settings.put("index.analysis.filter.myFilter.backend", "libvoikko_direct");
+        VoikkoResources direct = getFactory(new Index("first", "first-uuid")).getResources();
+        assertSame(direct, getFactory(new Index("second", "second-uuid")).getResources());
+        assertNotSame(jna, direct);
+
+        assertTokens("Testaan voikon analyysiä tällä tavalla",
+                token("Testaan", "testata", 1),
+                token("voikon", "Voikko", 1),
+                token("analyysiä", "analyysi", 1),
+                token("tällä", "tämä", 1),
+                token("tavalla", "tapa", 1));
+    }
+
+    public void testLookahead() {
+        settings.put("index.analysis.filter.myFilter.analyzeAll", true);
+        settings.put("index.analysis.filter.myFilter.lookahead", 4);
+
+        assertTokens("Testaan voikon analyysiä tällä tavalla yksinkertaisesti.",
+                token("Testaan", "testata", 1),
+                token("voikon", "Voikko", 1),
+                token("voikon", "voikko", 0),
+                token("analyysiä", "analyysi", 1),
+                token("tällä", "tämä", 1),
+                token("tavalla", "tapa", 1),
+                token("yksinkertaisesti", "yksinkertainen", 1),
+                token("yksinkertaisesti", "yksinkertainen", 0));
+    }
+
+    public void testBypassWords() {
+        settings.putList("index.analysis.filter.myFilter.bypassWords", "voikon", "tällä");
+
+        assertTokens("Testaan voikon analyysiä tällä tavalla",
+                token("Testaan", "testata", 1),
+                token("voikon", "voikon", 1),
+                token("analyysiä", "analyysi", 1),
+                token("tällä", "tällä", 1),
+                token("tavalla", "tapa", 1));
+    }
+
+    public void testLexiconPathOutsideConfigDirectoryIsRejected() {
+        settings.put("index.analysis.filter.myFilter.lexiconPath", "../lexicon.fst");
+
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class, this::getAnalysisService);
+        assertEquals("path [../lexicon.fst] is outside of the config directory", e.getMessage());
+    }
+
+    public void testFoldCase() {
+        settings.put("index.analysis.filter.myFilter.foldCase", true);
+        settings.put("index.analysis.filter.myFilter.caseOutput", "lowercase");
+
+        assertEquals(asList(
+                token("VOIKON", "voikko", 1),
+                token("Voikon", "voikko", 1),
+                token("voikon", "voikko", 1)),
+                parse("cased", "VOIKON Voikon voikon"));
+    }
+
+    public void testFoldCaseWithOriginalCaseOutput() {
+        settings.put("index.analysis.filter.myFilter.foldCase", true);
+        settings.put("index.analysis.filter.myFilter.caseOutput", "original");
+
+        assertEquals(asList(
+                token("VOIKON", "VOIKKO", 1),
+                token("Voikon", "Voikko", 1),
+                token("voikon", "voikko", 1),
+                token("TALOSSA", "TALO", 1)),
+                parse("cased", "VOIKON Voikon voikon TALOSSA"));
+    }
+
     public void testCompoundWords() {
         assertTokens("isoisälle", token("isoisälle", "isoisä", 1));
         assertTokens("tekokuulla keinokuuhun",
@@ -139,17 +262,22 @@ public class VoikkoTokenFilterTests extends ESTestCase {
         assertTokens("rippi-isälle", token("rippi-isälle", "rippi-isä", 1));
     }
 
+    public void testFinnishVoikkoAnalyzerMatchesChain() {
+        String text = "Testaan VOIKON analyysiä tällä tavalla yksinkertaisesti: rippi-isälle 42 foobarbaz.";
+        assertEquals(parse("test", text), parse("fused", text));
+    }
+
     private static TokenData token(String original, String token, int positionIncrement) {
         return new TokenData(original, token, positionIncrement);
     }
 
     private void assertTokens(String text, TokenData... expected) {
-        List<TokenData> tokens = parse(text);
+        List<TokenData> tokens = parse("test", text);
         assertEquals(asList(expected), tokens);
     }
 
-    private List<TokenData> parse(String text) {
-        NamedAnalyzer analyzer = getAnalysisService().indexAnalyzers.get("test");
+    private List<TokenData> parse(String analyzerName, String text) {
+        NamedAnalyzer analyzer = getAnalysisService().indexAnalyzers.get(analyzerName);
 
         try {
             try (TokenStream ts = analyzer.tokenStream("test", new StringReader(text))) {
@@ -171,16 +299,32 @@ public class VoikkoTokenFilterTests extends ESTestCase {
         }
     }
 
+    private VoikkoTokenFilterFactory getFactory(Index index) {
+        return (VoikkoTokenFilterFactory) getAnalysisService(index).tokenFilter.get("myFilter");
+    }
+
     private TestAnalysis getAnalysisService() {
+        return getAnalysisService(new Index("test", "test-uuid"));
+    }
+
+    /**
+     * Creates the analysis of an index as if the index was created on this node, so that its
+     * factories are registered and can use shared resources.
+     */
+    private TestAnalysis getAnalysisService(Index index) {
+        plugin.getRegistry().indexCreated(index);
         try {
             Settings indexSettings = Settings.builder()
                     .put(settings.build())
                     .put("index.analysis.analyzer.test.type", "custom")
                     .put("index.analysis.analyzer.test.tokenizer", "finnish")
                     .putList("index.analysis.analyzer.test.filter", "lowercase", "myFilter")
+                    .put("index.analysis.analyzer.cased.type", "custom")
+                    .put("index.analysis.analyzer.cased.tokenizer", "finnish")
+                    .putList("index.analysis.analyzer.cased.filter", "myFilter")
                     .build();
 
-            return createTestAnalysis(new Index("test", "_na_"), indexSettings, new AnalysisVoikkoPlugin());
+            return createTestAnalysis(index, indexSettings, plugin);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }